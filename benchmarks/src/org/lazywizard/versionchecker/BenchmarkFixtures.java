@@ -0,0 +1,23 @@
+package org.lazywizard.versionchecker;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Test data shared by more than one benchmark
+final class BenchmarkFixtures
+{
+    // The minimum a version file needs, either local or remote
+    static JSONObject createVersion(int major, int minor, String patch)
+            throws JSONException
+    {
+        final JSONObject modVersion = new JSONObject();
+        modVersion.put("major", major);
+        modVersion.put("minor", minor);
+        modVersion.put("patch", patch);
+        return new JSONObject().put("modVersion", modVersion);
+    }
+
+    private BenchmarkFixtures()
+    {
+    }
+}
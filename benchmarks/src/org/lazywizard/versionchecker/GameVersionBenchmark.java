@@ -0,0 +1,72 @@
+package org.lazywizard.versionchecker;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameVersionBenchmark
+{
+    @Param({"Starsector 0.9a-RC10"})
+    public String localVersion;
+    @Param({"Starsector 0.9.1a-RC8", "Starsector 0.9a-RC10"})
+    public String remoteVersion;
+
+    @Benchmark
+    public boolean isRemoteNewer()
+    {
+        return VersionChecker.isRemoteNewer(localVersion, remoteVersion);
+    }
+
+    @Benchmark
+    public boolean legacyIsRemoteNewer()
+    {
+        return legacyIsRemoteNewer(localVersion, remoteVersion);
+    }
+
+    // The regex-based implementation used before version 2.1, kept as a baseline
+    private static boolean legacyIsRemoteNewer(String localVersion, String remoteVersion)
+    {
+        if (localVersion == null || remoteVersion == null)
+        {
+            return false;
+        }
+
+        final String[] localRaw = localVersion.replaceAll("[^0-9.-]", "").split("-", 2),
+                remoteRaw = remoteVersion.replaceAll("[^0-9.-]", "").split("-", 2);
+        final String vLocal = localRaw[0], vRemote = remoteRaw[0],
+                rcLocalRaw = (localRaw.length > 1 ? localRaw[1].replaceAll("\\D", "") : "0"),
+                rcRemoteRaw = (remoteRaw.length > 1 ? remoteRaw[1].replaceAll("\\D", "") : "0");
+        final int rcLocal = (rcLocalRaw.isEmpty() ? 0 : Integer.parseInt(rcLocalRaw)),
+                rcRemote = (rcRemoteRaw.isEmpty() ? 0 : Integer.parseInt(rcRemoteRaw));
+
+        if (!vLocal.equals(vRemote))
+        {
+            final String[] localMajorMinor = vLocal.split("\\."),
+                    remoteMajorMinor = vRemote.split("\\.");
+            int i = 0;
+            while (i < localMajorMinor.length && i < remoteMajorMinor.length
+                    && localMajorMinor[i].equals(remoteMajorMinor[i]))
+            {
+                i++;
+            }
+            if (i < localMajorMinor.length && i < remoteMajorMinor.length)
+            {
+                final String localPadded = String.format("%-3s", localMajorMinor[i]).replace(' ', '0'),
+                        remotePadded = String.format("%-3s", remoteMajorMinor[i]).replace(' ', '0');
+                return remotePadded.compareTo(localPadded) > 0;
+            }
+            else
+            {
+                return remoteMajorMinor.length > localMajorMinor.length;
+            }
+        }
+
+        return (Integer.compare(rcRemote, rcLocal) > 0);
+    }
+}
@@ -0,0 +1,78 @@
+package org.lazywizard.versionchecker;
+
+// Checks GameVersion's ordering of every known Starsector release. Not a JMH
+// benchmark, run it directly; silent unless a case fails, which throws
+public class GameVersionOrderCheck
+{
+    private static final String[] ALL_VERSIONS = new String[]
+            {
+                    "Starsector 0.35a-pre-RC2",
+                    "Starsector 0.5a-pre-RC3",
+                    "Starsector 0.51a-RC1",
+                    "Starsector 0.51a-RC3",
+                    "Starsector 0.52a-RC2",
+                    "Starsector 0.52.1a-RC4",
+                    "Starsector 0.53a-RC4",
+                    "Starsector 0.53.1a-RC5",
+                    "Starsector 0.54a-RC5",
+                    "Starsector 0.54.1a-RC2",
+                    "Starsector 0.6a-RC1",
+                    "Starsector 0.6a-RC4",
+                    "Starsector 0.6.1a-RC2",
+                    "Starsector 0.6.2a-RC2",
+                    "Starsector 0.6.2a-RC3",
+                    "Starsector 0.65a-RC1",
+                    "Starsector 0.65.1a-RC1",
+                    "Starsector 0.65.2a-RC1",
+                    "Starsector 0.7a-RC7",
+                    "Starsector 0.7a-RC10",
+                    "Starsector 0.7.1a-RC3",
+                    "Starsector 0.7.1a-RC4",
+                    "Starsector 0.7.1a-RC5",
+                    "Starsector 0.7.2a-RC1",
+                    "Starsector 0.7.2a-RC2",
+                    "Starsector 0.7.2a-RC3",
+                    "Starsector 0.8a-RC17",
+                    "Starsector 0.8a-RC18",
+                    "Starsector 0.8a-RC19",
+                    "Starsector 0.8.1a-RC5",
+                    "Starsector 0.8.1a-RC6",
+                    "Starsector 0.9a-RC6",
+                    "Starsector 0.9a-RC7",
+                    "Starsector 0.9a-RC8",
+                    "Starsector 0.9a-RC9",
+                    "Starsector 0.9a-RC10",
+            };
+
+    public static void main(String[] args)
+    {
+        // Every version should be newer than all before it, and not newer than itself
+        for (int x = 0; x < ALL_VERSIONS.length; x++)
+        {
+            final GameVersion vOld = GameVersion.parse(ALL_VERSIONS[x]);
+            check(GameVersion.parse(ALL_VERSIONS[x]) == vOld, "not cached",
+                    ALL_VERSIONS[x], ALL_VERSIONS[x]);
+            for (int y = x; y < ALL_VERSIONS.length; y++)
+            {
+                final GameVersion vNew = GameVersion.parse(ALL_VERSIONS[y]);
+                final boolean expected = (y > x);
+                check(vNew.isNewerThan(vOld) == expected, "isNewerThan",
+                        ALL_VERSIONS[y], ALL_VERSIONS[x]);
+                check(!vOld.isNewerThan(vNew), "isNewerThan",
+                        ALL_VERSIONS[x], ALL_VERSIONS[y]);
+                check(Integer.signum(vNew.compareTo(vOld)) == (expected ? 1 : 0),
+                        "compareTo", ALL_VERSIONS[y], ALL_VERSIONS[x]);
+                check(Integer.signum(vOld.compareTo(vNew)) == (expected ? -1 : 0),
+                        "compareTo", ALL_VERSIONS[x], ALL_VERSIONS[y]);
+            }
+        }
+    }
+
+    private static void check(boolean passed, String what, String first, String second)
+    {
+        if (!passed)
+        {
+            throw new AssertionError(what + " failed for " + first + " vs " + second);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.lazywizard.versionchecker;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONSanitizerBenchmark
+{
+    // Mirrors the commented .version file that ships with this mod
+    private static final String COMMENTED = "{\n"
+            + "    # Points toward the master .version file online\n"
+            + "    \"masterVersionFile\":\"https://example.com/mod/mod.version\",\n"
+            + "    \"modName\":\"Example Mod\", # The name shown in-game\n"
+            + "    \"modThreadId\":8181,\n"
+            + "    \"modNexusId\":3,\n"
+            + "    \"modVersion\":\n"
+            + "    {\n"
+            + "        \"major\":2,\n"
+            + "        \"minor\":0,\n"
+            + "        \"patch\":b # Can be a number, character or string\n"
+            + "    },\n"
+            + "    # Links to the changelog\n"
+            + "    \"changelogURL\":\"https://example.com/mod/changelog.txt\"\n"
+            + "}\n";
+    private static final String UNCOMMENTED = "{\"modVersion\":{\"major\":2,\"minor\":0,\"patch\":\"b\"}}";
+
+    @Param({"commented", "uncommented"})
+    public String input;
+    private String rawJSON;
+
+    @Setup
+    public void setup()
+    {
+        rawJSON = ("commented".equals(input) ? COMMENTED : UNCOMMENTED);
+    }
+
+    @Benchmark
+    public String stripComments()
+    {
+        return JSONSanitizer.stripComments(rawJSON);
+    }
+
+    @Benchmark
+    public String legacyStripComments()
+    {
+        return legacyStripComments(rawJSON);
+    }
+
+    // The line-based implementation used before version 2.1, kept as a baseline
+    private static String legacyStripComments(final String rawJSON)
+    {
+        StringBuilder result = new StringBuilder(rawJSON.length());
+        for (final String str : rawJSON.split("\n"))
+        {
+            if (str.trim().startsWith("#"))
+            {
+                continue;
+            }
+
+            if (str.contains("#"))
+            {
+                result.append(str.substring(0, str.indexOf('#')));
+            }
+            else
+            {
+                result.append(str);
+            }
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package org.lazywizard.versionchecker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.lazywizard.versionchecker.UpdateInfo.ModInfo;
+import org.lazywizard.versionchecker.UpdateInfo.VersionFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// A full update check of N mods against master files served from localhost,
+// with an optional artificial delay per response to stand in for a slow host.
+// With useIndex, every mod instead refers to its entry in one version index
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateSweepBenchmark
+{
+    @Param({"50", "200"})
+    public int mods;
+    @Param({"0", "20"})
+    public int serverDelayMillis;
+    @Param({"8"})
+    public int maxUpdateThreads;
+    @Param({"threaded", "nio"})
+    public String fetchEngine;
+    @Param({"false", "true"})
+    public boolean useIndex;
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private List<VersionFile> localVersions;
+
+    @Setup
+    public void setup() throws IOException, JSONException
+    {
+        // Every other mod has an update available
+        final byte[] masterFile = ("# Master version file\n"
+                + BenchmarkFixtures.createVersion(1, 1, "0").toString())
+                .getBytes(StandardCharsets.UTF_8);
+        final JSONObject indexEntries = new JSONObject();
+        for (int i = 0; i < mods; i++)
+        {
+            indexEntries.put("mod" + i, BenchmarkFixtures.createVersion(1, 1, "0"));
+        }
+        final byte[] indexFile = new JSONObject().put("mods", indexEntries).toString()
+                .getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                if (serverDelayMillis > 0)
+                {
+                    try
+                    {
+                        Thread.sleep(serverDelayMillis);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                final byte[] response = ("/index.version".equals(exchange.getRequestURI().getPath())
+                        ? indexFile : masterFile);
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream body = exchange.getResponseBody())
+                {
+                    body.write(response);
+                }
+            }
+        });
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+
+        final String baseURL = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        localVersions = new ArrayList<>(mods);
+        for (int i = 0; i < mods; i++)
+        {
+            final JSONObject json = BenchmarkFixtures.createVersion(1, (i % 2 == 0 ? 0 : 1), "0");
+            if (useIndex)
+            {
+                json.put("masterVersionFile", baseURL + "index.version");
+                json.put("masterVersionId", "mod" + i);
+            }
+            else
+            {
+                json.put("masterVersionFile", baseURL + "mod" + i + ".version");
+            }
+            json.put("modName", "Mod " + i);
+            localVersions.add(new VersionFile(json, false));
+        }
+
+        VersionChecker.setMaxThreads(maxUpdateThreads);
+        VersionChecker.setMaxThreadsPerHost(maxUpdateThreads);
+        VersionChecker.setCacheTTL(0);
+        VersionChecker.setTimeouts(10, 20, 60);
+        VersionChecker.setFetchEngine(fetchEngine);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Benchmark
+    public UpdateInfo sweep() throws Exception
+    {
+        return VersionChecker.scheduleUpdateCheck(localVersions,
+                new ConcurrentLinkedQueue<ModInfo>()).get();
+    }
+}
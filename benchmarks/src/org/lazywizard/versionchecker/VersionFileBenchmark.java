@@ -0,0 +1,54 @@
+package org.lazywizard.versionchecker;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.lazywizard.versionchecker.UpdateInfo.VersionFile;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionFileBenchmark
+{
+    private JSONObject json;
+    private VersionFile numericOld, numericNew, suffixOld, suffixNew;
+
+    @Setup
+    public void setup() throws JSONException
+    {
+        json = BenchmarkFixtures.createVersion(2, 4, "11");
+        numericOld = new VersionFile(BenchmarkFixtures.createVersion(2, 4, "9"), true);
+        numericNew = new VersionFile(BenchmarkFixtures.createVersion(2, 4, "11"), true);
+        suffixOld = new VersionFile(BenchmarkFixtures.createVersion(2, 4, "b"), true);
+        suffixNew = new VersionFile(BenchmarkFixtures.createVersion(2, 4, "C"), true);
+    }
+
+    @Benchmark
+    public VersionFile construct() throws JSONException
+    {
+        return new VersionFile(json, true);
+    }
+
+    @Benchmark
+    public int compareNumericPatch()
+    {
+        return numericOld.compareTo(numericNew);
+    }
+
+    @Benchmark
+    public int compareSuffixPatch()
+    {
+        return suffixOld.compareTo(suffixNew);
+    }
+
+    @Benchmark
+    public int compareSame()
+    {
+        return numericNew.compareTo(numericNew);
+    }
+}
@@ -0,0 +1,33 @@
+package org.lazywizard.versionchecker;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WrapBenchmark
+{
+    @Param({"short", "long"})
+    public String input;
+    private String text;
+
+    @Setup
+    public void setup()
+    {
+        text = ("short".equals(input) ? " - Example Mod (v1.2 vs v1.3)"
+                : " - Example Mod With A Very Long Name (v1.2.3 vs v1.3, failed to load"
+                + " master version file from URL \"https://raw.githubusercontent.com/"
+                + "example/example-mod/master/example.version\")");
+    }
+
+    @Benchmark
+    public String wrap()
+    {
+        return UpdateReport.wrap(text);
+    }
+}
@@ -0,0 +1,55 @@
+package org.lazywizard.versionchecker;
+
+import com.fs.starfarer.api.Global;
+
+// Minor utility class for the data Version Checker keeps between sessions
+// (stored in saves/common). Outside of the game, such as when benchmarking,
+// there's nowhere to store anything and every read simply comes back empty
+final class CommonFiles
+{
+    private static boolean isAvailable()
+    {
+        return (Global.getSettings() != null);
+    }
+
+    // Returns null if the file doesn't exist or couldn't be read
+    static String read(String fileName)
+    {
+        if (!isAvailable())
+        {
+            return null;
+        }
+
+        try
+        {
+            final String contents = Global.getSettings().readTextFileFromCommon(fileName);
+            return (contents == null || contents.isEmpty() ? null : contents);
+        }
+        catch (Exception ex)
+        {
+            Log.warn("Failed to read \"" + fileName + "\" from saves/common", ex);
+            return null;
+        }
+    }
+
+    static void write(String fileName, String contents)
+    {
+        if (!isAvailable())
+        {
+            return;
+        }
+
+        try
+        {
+            Global.getSettings().writeTextFileToCommon(fileName, contents);
+        }
+        catch (Exception ex)
+        {
+            Log.warn("Failed to write \"" + fileName + "\" to saves/common", ex);
+        }
+    }
+
+    private CommonFiles()
+    {
+    }
+}
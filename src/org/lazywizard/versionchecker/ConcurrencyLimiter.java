@@ -0,0 +1,81 @@
+package org.lazywizard.versionchecker;
+
+import java.util.concurrent.TimeUnit;
+
+// Decides how many downloads may run at once, adjusting as the check goes on.
+// Starts at the floor and grows quickly while everything succeeds, then
+// follows AIMD: each window of successful downloads raises the limit by one,
+// while a transient failure or a download that took much longer than the
+// fastest seen from its host cuts the limit back (at most once per window).
+// The fixed slack keeps ordinary jitter on fast hosts from counting as slow.
+// Not thread-safe, HttpFetcher guards it with its own lock
+final class ConcurrencyLimiter
+{
+    private static final double BACKOFF_RATIO = 0.7, SLOW_RATIO = 2.0;
+    private static final long SLOW_SLACK = TimeUnit.MILLISECONDS.toNanos(250);
+    private final int floor, ceiling;
+    private double limit;
+    private boolean isSlowStart = true;
+    private int inFlight = 0, sinceDecrease = 0, peak;
+
+    ConcurrencyLimiter(int floor, int ceiling)
+    {
+        this.ceiling = Math.max(1, ceiling);
+        this.floor = Math.max(1, Math.min(floor, this.ceiling));
+        this.limit = this.floor;
+        this.peak = this.floor;
+    }
+
+    boolean tryAcquire()
+    {
+        if (inFlight >= (int) limit)
+        {
+            return false;
+        }
+
+        inFlight++;
+        return true;
+    }
+
+    // Releases a slot without counting towards the limit (ex: a skipped request)
+    void cancel()
+    {
+        inFlight--;
+    }
+
+    // latency is how long this download took, fastest is the quickest download
+    // seen from the same host so far (both in nanoseconds)
+    void release(long latency, long fastest, boolean isCongested)
+    {
+        inFlight--;
+        sinceDecrease++;
+        if (isCongested || latency > fastest * SLOW_RATIO + SLOW_SLACK)
+        {
+            // Only back off once per window, so a burst of slow responses
+            // from the same moment doesn't collapse the limit to the floor
+            if (sinceDecrease >= (int) limit)
+            {
+                limit = Math.max(floor, limit * BACKOFF_RATIO);
+                isSlowStart = false;
+                sinceDecrease = 0;
+            }
+
+            return;
+        }
+
+        limit = Math.min(ceiling, limit + (isSlowStart ? 1.0 : 1.0 / limit));
+        peak = Math.max(peak, (int) limit);
+    }
+
+    int getLimit()
+    {
+        return (int) limit;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "concurrency settled at " + getLimit() + " (floor " + floor
+                + ", ceiling " + ceiling + ", peak " + peak + ")";
+    }
+}
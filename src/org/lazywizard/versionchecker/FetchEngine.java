@@ -0,0 +1,31 @@
+package org.lazywizard.versionchecker;
+
+import java.io.IOException;
+import java.net.URL;
+
+// Performs the actual downloads for HttpFetcher. Engines only need to make a
+// single request: per-host limits, retries and skipping failing hosts are all
+// handled by HttpFetcher, regardless of which engine is used
+interface FetchEngine
+{
+    // Exactly one of the callback's methods will be called once the request
+    // is done, possibly on another thread, unless the engine is shut down first
+    void fetch(URL url, RemoteFileCache.Entry cached, FetchMetrics.Request metrics,
+               Callback callback);
+
+    // The most requests this engine is able to run at the same time
+    int getMaxConcurrency();
+
+    // Runs the task on one of the engine's threads after the delay has passed
+    void schedule(Runnable task, long delayMillis);
+
+    // Abandons all requests still in progress and stops the engine's threads
+    void shutdown();
+
+    interface Callback
+    {
+        void completed(HttpFetcher.Response response);
+
+        void failed(IOException ex);
+    }
+}
@@ -0,0 +1,302 @@
+package org.lazywizard.versionchecker;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.lazywizard.versionchecker.UpdateInfo.VersionFile;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// Collects the timings of every request made during an update check, so slow
+// hosts can be found without guesswork. The report for the most recent check
+// is written to saves/common and can be viewed with the VersionMetrics command
+final class FetchMetrics
+{
+    private static final String REPORT_FILE = "lw_version_checker_metrics.json";
+    private static volatile FetchMetrics lastReport = null;
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+    private final long startTime = System.currentTimeMillis();
+    private long elapsedMillis = 0;
+    private int concurrency = 0;
+
+    // Returns null if no update check has finished since the game started
+    static FetchMetrics getLastReport()
+    {
+        return lastReport;
+    }
+
+    static long toMillis(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    // queuedAt is the System.nanoTime() this request was scheduled at
+    Request start(String url, List<VersionFile> mods, long queuedAt)
+    {
+        final Request request = new Request(url, mods);
+        request.queueWait = toMillis(request.created - queuedAt);
+        requests.add(request);
+        return request;
+    }
+
+    List<Request> getRequests()
+    {
+        return new ArrayList<>(requests);
+    }
+
+    // Groups all requests by host, hosts with the slowest requests first
+    Map<String, HostSummary> getHostSummaries()
+    {
+        final Map<String, List<Request>> byHost = new HashMap<>();
+        for (Request request : requests)
+        {
+            List<Request> list = byHost.get(request.host);
+            if (list == null)
+            {
+                list = new ArrayList<>();
+                byHost.put(request.host, list);
+            }
+
+            list.add(request);
+        }
+
+        final List<HostSummary> summaries = new ArrayList<>(byHost.size());
+        for (Map.Entry<String, List<Request>> tmp : byHost.entrySet())
+        {
+            summaries.add(new HostSummary(tmp.getKey(), tmp.getValue()));
+        }
+
+        Collections.sort(summaries, new Comparator<HostSummary>()
+        {
+            @Override
+            public int compare(HostSummary o1, HostSummary o2)
+            {
+                return Long.compare(o2.total.max, o1.total.max);
+            }
+        });
+
+        final Map<String, HostSummary> sorted = new LinkedHashMap<>();
+        for (HostSummary summary : summaries)
+        {
+            sorted.put(summary.host, summary);
+        }
+
+        return sorted;
+    }
+
+    long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    // Called once the update check is over, makes this the report shown by the console
+    void finish(long elapsedMillis, int concurrency)
+    {
+        this.elapsedMillis = elapsedMillis;
+        this.concurrency = concurrency;
+        lastReport = this;
+
+        final Map<String, HostSummary> hosts = getHostSummaries();
+        if (!hosts.isEmpty())
+        {
+            final HostSummary slowest = hosts.values().iterator().next();
+            Log.info("Made " + requests.size() + " requests to " + hosts.size()
+                    + " hosts, slowest was " + slowest.host + " (p90 "
+                    + slowest.total.p90 + "ms, max " + slowest.total.max + "ms)");
+        }
+
+        try
+        {
+            CommonFiles.write(REPORT_FILE, toJSON().toString(2));
+        }
+        catch (JSONException ex)
+        {
+            Log.warn("Failed to save update check metrics", ex);
+        }
+    }
+
+    JSONObject toJSON() throws JSONException
+    {
+        final JSONObject json = new JSONObject();
+        json.put("started", startTime);
+        json.put("elapsedMillis", elapsedMillis);
+        json.put("concurrency", concurrency);
+
+        final JSONObject hosts = new JSONObject();
+        for (HostSummary summary : getHostSummaries().values())
+        {
+            hosts.put(summary.host, summary.toJSON());
+        }
+        json.put("hosts", hosts);
+
+        final JSONArray requests = new JSONArray();
+        for (Request request : this.requests)
+        {
+            requests.put(request.toJSON());
+        }
+        json.put("requests", requests);
+        return json;
+    }
+
+    // All times are in milliseconds, -1 means that step never happened
+    // (ex: local files in dev mode are never looked up or connected to).
+    // The total runs from when the request was queued, so it includes
+    // queueWait (time spent waiting for a free thread or a host slot)
+    static final class Request
+    {
+        final String url, host;
+        final List<String> mods;
+        long queueWait = 0, dns = -1, connect = -1, firstByte = -1,
+                download = -1, parse = -1, total = -1, bytes = 0;
+        int retries = 0;
+        String outcome = "unfinished";
+        private final long created = System.nanoTime();
+
+        private Request(String url, List<VersionFile> mods)
+        {
+            this.url = url;
+            this.host = HttpFetcher.getHost(url);
+            this.mods = new ArrayList<>(mods.size());
+            for (VersionFile mod : mods)
+            {
+                this.mods.add(mod.getName());
+            }
+        }
+
+        void finish(String outcome)
+        {
+            this.outcome = outcome;
+            total = toMillis(System.nanoTime() - created);
+        }
+
+        private JSONObject toJSON() throws JSONException
+        {
+            final JSONObject json = new JSONObject();
+            json.put("url", url);
+            json.put("host", host);
+            json.put("mods", new JSONArray(mods));
+            json.put("outcome", outcome);
+            json.put("bytes", bytes);
+            json.put("retries", retries);
+            json.put("queueWait", queueWait);
+            json.put("dns", dns);
+            json.put("connect", connect);
+            json.put("firstByte", firstByte);
+            json.put("download", download);
+            json.put("parse", parse);
+            json.put("total", total);
+            return json;
+        }
+    }
+
+    static final class HostSummary
+    {
+        final String host;
+        final int requests, failures;
+        final long bytes;
+        final Percentiles total, queueWait, firstByte, download;
+
+        private HostSummary(String host, List<Request> requests)
+        {
+            this.host = host;
+            this.requests = requests.size();
+
+            final int size = requests.size();
+            final long[] total = new long[size], queueWait = new long[size],
+                    firstByte = new long[size], download = new long[size];
+            int failures = 0;
+            long bytes = 0;
+            for (int i = 0; i < size; i++)
+            {
+                final Request request = requests.get(i);
+                total[i] = request.total;
+                queueWait[i] = request.queueWait;
+                firstByte[i] = request.firstByte;
+                download[i] = request.download;
+                bytes += request.bytes;
+                if (!"ok".equals(request.outcome) && !"not modified".equals(request.outcome))
+                {
+                    failures++;
+                }
+            }
+
+            this.failures = failures;
+            this.bytes = bytes;
+            this.total = new Percentiles(total);
+            this.queueWait = new Percentiles(queueWait);
+            this.firstByte = new Percentiles(firstByte);
+            this.download = new Percentiles(download);
+        }
+
+        private JSONObject toJSON() throws JSONException
+        {
+            final JSONObject json = new JSONObject();
+            json.put("requests", requests);
+            json.put("failures", failures);
+            json.put("bytes", bytes);
+            json.put("total", total.toJSON());
+            json.put("queueWait", queueWait.toJSON());
+            json.put("firstByte", firstByte.toJSON());
+            json.put("download", download.toJSON());
+            return json;
+        }
+    }
+
+    // Nearest-rank percentiles, steps that never happened (-1) are skipped
+    static final class Percentiles
+    {
+        final long p50, p90, p99, max;
+
+        private Percentiles(long[] values)
+        {
+            int count = 0;
+            for (long value : values)
+            {
+                if (value >= 0)
+                {
+                    values[count++] = value;
+                }
+            }
+
+            Arrays.sort(values, 0, count);
+            p50 = getRank(values, count, 50);
+            p90 = getRank(values, count, 90);
+            p99 = getRank(values, count, 99);
+            max = (count == 0 ? -1 : values[count - 1]);
+        }
+
+        private static long getRank(long[] sorted, int count, int percentile)
+        {
+            if (count == 0)
+            {
+                return -1;
+            }
+
+            final int rank = (int) Math.ceil(percentile / 100.0 * count);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        private JSONObject toJSON() throws JSONException
+        {
+            final JSONObject json = new JSONObject();
+            json.put("p50", p50);
+            json.put("p90", p90);
+            json.put("p99", p99);
+            json.put("max", max);
+            return json;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "p50 " + p50 + "ms, p90 " + p90 + "ms, p99 " + p99 + "ms, max " + max + "ms";
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.lazywizard.versionchecker;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// A parsed Starsector version string (ex: "Starsector 0.65.2a-RC1"). Parsing
+// is done once per distinct string and cached, so comparisons are just a walk
+// over precomputed components followed by the release candidate number
+final class GameVersion implements Comparable<GameVersion>
+{
+    private static final ConcurrentMap<String, GameVersion> CACHE = new ConcurrentHashMap<>();
+    private final String version;
+    private final String[] components, paddedComponents;
+    private final int releaseCandidate;
+
+    static GameVersion parse(String rawVersion)
+    {
+        GameVersion parsed = CACHE.get(rawVersion);
+        if (parsed == null)
+        {
+            parsed = new GameVersion(rawVersion);
+            final GameVersion existing = CACHE.putIfAbsent(rawVersion, parsed);
+            if (existing != null)
+            {
+                parsed = existing;
+            }
+        }
+
+        return parsed;
+    }
+
+    private static boolean isAsciiDigit(char ch)
+    {
+        return (ch >= '0' && ch <= '9');
+    }
+
+    private GameVersion(String rawVersion)
+    {
+        // Remove all non-version data from the version information,
+        // then split the version number and release candidate number
+        // (ex: "Starsector 0.65.2a-RC1" becomes "0.65.2" and 1)
+        final StringBuilder versionPart = new StringBuilder(rawVersion.length());
+        long rc = 0;
+        boolean inRC = false;
+        for (int i = 0; i < rawVersion.length(); i++)
+        {
+            final char ch = rawVersion.charAt(i);
+            if (inRC)
+            {
+                // Only digits count towards the release candidate number
+                if (isAsciiDigit(ch))
+                {
+                    rc = Math.min(rc * 10 + (ch - '0'), Integer.MAX_VALUE);
+                }
+            }
+            else if (ch == '-')
+            {
+                inRC = true;
+            }
+            else if (isAsciiDigit(ch) || ch == '.')
+            {
+                versionPart.append(ch);
+            }
+        }
+
+        version = versionPart.toString();
+        releaseCandidate = (int) rc;
+
+        // Split version number into major, minor, patch, etc, and pad each
+        // so ex: 0.65 is considered higher than 0.6
+        components = version.split("\\.");
+        paddedComponents = new String[components.length];
+        for (int i = 0; i < components.length; i++)
+        {
+            final StringBuilder padded = new StringBuilder(3).append(components[i]);
+            while (padded.length() < 3)
+            {
+                padded.append('0');
+            }
+
+            paddedComponents[i] = padded.toString();
+        }
+    }
+
+    boolean isNewerThan(GameVersion other)
+    {
+        return (compareTo(other) > 0);
+    }
+
+    // Based on StackOverflow answer by Alex Gitelman found here:
+    // http://stackoverflow.com/a/6702029/1711452
+    @Override
+    public int compareTo(GameVersion other)
+    {
+        // Check release candidate if major.minor versions are the same
+        if (version.equals(other.version))
+        {
+            return Integer.compare(releaseCandidate, other.releaseCandidate);
+        }
+
+        // Iterate through all subversions until we find one that's not equal
+        int i = 0;
+        while (i < components.length && i < other.components.length
+                && components[i].equals(other.components[i]))
+        {
+            i++;
+        }
+
+        // Compare first non-equal subversion number
+        if (i < components.length && i < other.components.length)
+        {
+            return paddedComponents[i].compareTo(other.paddedComponents[i]);
+        }
+
+        // If version length differs but up to that length they are equal,
+        // then the longer one is a patch of the shorter
+        return Integer.compare(components.length, other.components.length);
+    }
+
+    @Override
+    public String toString()
+    {
+        return version + "-RC" + releaseCandidate;
+    }
+}
@@ -0,0 +1,377 @@
+package org.lazywizard.versionchecker;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.*;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fetch layer used by all update checks, the downloads themselves are done by
+// a FetchEngine. The number of downloads in flight is capped both overall (by
+// a ConcurrencyLimiter that adapts as the check goes on) and for each host, and
+// anything over either cap waits in a queue without tying up a thread.
+// Transient failures are retried with a jittered exponential backoff, and a
+// host that keeps failing is skipped for the rest of the check so the mods
+// hosted there fail fast instead of each waiting out their own timeouts
+final class HttpFetcher
+{
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final List<Attempt> waiting = new LinkedList<>();
+    private final FetchEngine engine;
+    private final ConcurrencyLimiter limiter;
+    private final int maxPerHost, maxRetries, retryDelay, maxHostFailures;
+
+    // Delays are in milliseconds. Setting maxHostFailures to 0 means hosts
+    // are never skipped
+    HttpFetcher(FetchEngine engine, ConcurrencyLimiter limiter, int maxPerHost,
+                int maxRetries, int retryDelay, int maxHostFailures)
+    {
+        this.engine = engine;
+        this.limiter = limiter;
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryDelay = Math.max(0, retryDelay);
+        this.maxHostFailures = Math.max(0, maxHostFailures);
+    }
+
+    static String getHost(String url)
+    {
+        try
+        {
+            return getHost(new URL(url));
+        }
+        catch (IOException ex)
+        {
+            return "";
+        }
+    }
+
+    private static String getHost(URL url)
+    {
+        final String host = url.getHost();
+        return (host == null ? "" : host.toLowerCase());
+    }
+
+    private Host getHostState(String host)
+    {
+        Host state = hosts.get(host);
+        if (state == null)
+        {
+            final Host tmp = new Host();
+            state = hosts.putIfAbsent(host, tmp);
+            if (state == null)
+            {
+                state = tmp;
+            }
+        }
+
+        return state;
+    }
+
+    // Only failures that could go away on their own are retried. Unknown hosts
+    // aren't, as the JRE caches failed lookups and would fail again anyway
+    private static boolean isTransient(IOException ex)
+    {
+        if (ex instanceof StatusException)
+        {
+            final int code = ((StatusException) ex).code;
+            return (code == HttpURLConnection.HTTP_CLIENT_TIMEOUT || code == 429
+                    || code >= HttpURLConnection.HTTP_INTERNAL_ERROR);
+        }
+
+        return (ex instanceof SocketTimeoutException || ex instanceof EOFException
+                || (ex instanceof SocketException && !(ex instanceof UnknownHostException)));
+    }
+
+    // Equal jitter: half the exponential delay is fixed, the other half random
+    private long getBackoff(int attempt)
+    {
+        final long delay = (long) retryDelay << Math.min(attempt, 16);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    // Validators are only sent if the cached entry is non-null. Timings for
+    // each step of the request are recorded in metrics as they happen
+    void fetch(String url, RemoteFileCache.Entry cached, FetchMetrics.Request metrics,
+               FetchEngine.Callback callback)
+    {
+        final URL parsed;
+        try
+        {
+            parsed = new URL(url);
+        }
+        catch (MalformedURLException ex)
+        {
+            callback.failed(ex);
+            return;
+        }
+
+        new Attempt(parsed, cached, metrics, callback).submit();
+    }
+
+    // Describes the overall concurrency limit the check settled on
+    String getConcurrency()
+    {
+        synchronized (waiting)
+        {
+            return limiter.toString();
+        }
+    }
+
+    int getConcurrencyLimit()
+    {
+        synchronized (waiting)
+        {
+            return limiter.getLimit();
+        }
+    }
+
+    // Starts waiting requests, oldest first, until there are no free slots
+    // left overall or for the hosts of the remaining requests
+    private void dispatch()
+    {
+        while (true)
+        {
+            Attempt next = null;
+            synchronized (waiting)
+            {
+                if (waiting.isEmpty() || !limiter.tryAcquire())
+                {
+                    return;
+                }
+
+                for (Iterator<Attempt> iter = waiting.iterator(); iter.hasNext(); )
+                {
+                    final Attempt attempt = iter.next();
+                    if (attempt.host.inFlight < maxPerHost)
+                    {
+                        iter.remove();
+                        attempt.host.inFlight++;
+                        next = attempt;
+                        break;
+                    }
+                }
+
+                if (next == null)
+                {
+                    limiter.cancel();
+                    return;
+                }
+            }
+
+            if (!next.start())
+            {
+                synchronized (waiting)
+                {
+                    next.host.inFlight--;
+                    limiter.cancel();
+                }
+            }
+        }
+    }
+
+    private final class Attempt implements FetchEngine.Callback
+    {
+        private final URL url;
+        private final RemoteFileCache.Entry cached;
+        private final FetchMetrics.Request metrics;
+        private final FetchEngine.Callback callback;
+        private final Host host;
+        private int attempt = 0;
+        private long queuedAt, startedAt;
+
+        private Attempt(URL url, RemoteFileCache.Entry cached,
+                        FetchMetrics.Request metrics, FetchEngine.Callback callback)
+        {
+            this.url = url;
+            this.cached = cached;
+            this.metrics = metrics;
+            this.callback = callback;
+            this.host = getHostState(getHost(url));
+        }
+
+        // Once a host has failed too often, don't bother waiting on it again
+        private boolean isSkipped()
+        {
+            final int failures = host.failures.get();
+            if (maxHostFailures > 0 && failures >= maxHostFailures)
+            {
+                callback.failed(new HostSkippedException("Skipped " + url
+                        + ", host failed " + failures + " times in a row"));
+                return true;
+            }
+
+            return false;
+        }
+
+        private void submit()
+        {
+            if (isSkipped())
+            {
+                return;
+            }
+
+            queuedAt = System.nanoTime();
+            synchronized (waiting)
+            {
+                waiting.add(this);
+            }
+
+            dispatch();
+        }
+
+        // Returns false if the request was skipped instead of started
+        private boolean start()
+        {
+            if (isSkipped())
+            {
+                return false;
+            }
+
+            // Time spent waiting on the concurrency limits counts as queueing
+            startedAt = System.nanoTime();
+            metrics.queueWait += FetchMetrics.toMillis(startedAt - queuedAt);
+            engine.fetch(url, cached, metrics, this);
+            return true;
+        }
+
+        // Only successful downloads count towards a host's fastest time, so
+        // servers that refuse connections instantly don't skew it
+        private void release(boolean isSuccess, boolean isCongested)
+        {
+            final long latency = System.nanoTime() - startedAt;
+            synchronized (waiting)
+            {
+                host.inFlight--;
+                if (isSuccess)
+                {
+                    host.fastest = Math.min(host.fastest, latency);
+                }
+
+                limiter.release(latency, host.fastest, isCongested);
+            }
+
+            dispatch();
+        }
+
+        @Override
+        public void completed(Response response)
+        {
+            host.failures.set(0);
+            release(true, false);
+            callback.completed(response);
+        }
+
+        @Override
+        public void failed(IOException ex)
+        {
+            release(false, isTransient(ex));
+            if (!isTransient(ex))
+            {
+                callback.failed(ex);
+                return;
+            }
+
+            if (attempt >= maxRetries)
+            {
+                host.failures.incrementAndGet();
+                callback.failed(ex);
+                return;
+            }
+
+            final long backoff = getBackoff(attempt);
+            Log.debug("Retrying " + url + " in " + backoff + "ms after: " + ex);
+            attempt++;
+            metrics.retries++;
+            try
+            {
+                engine.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        submit();
+                    }
+                }, backoff);
+            }
+            catch (RejectedExecutionException rex)
+            {
+                // The update check is already over
+                callback.failed(ex);
+            }
+        }
+    }
+
+    // Everything but failures is guarded by the waiting list's lock
+    private static final class Host
+    {
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private int inFlight = 0;
+        private long fastest = Long.MAX_VALUE;
+    }
+
+    static final class StatusException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+        final int code;
+
+        StatusException(int code, String url)
+        {
+            super("Server returned HTTP response code: " + code + " for URL: " + url);
+            this.code = code;
+        }
+    }
+
+    static final class HostSkippedException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private HostSkippedException(String message)
+        {
+            super(message);
+        }
+    }
+
+    // The response clearly wasn't a version file, or was too large to be one
+    static final class RejectedException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        RejectedException(String message)
+        {
+            super(message);
+        }
+
+        // Neither engine follows these, HttpURLConnection never does
+        static RejectedException crossProtocolRedirect(URL from, String to)
+        {
+            return new RejectedException("Not following redirect from " + from
+                    + " to " + to + " (different protocol)");
+        }
+    }
+
+    static final class Response
+    {
+        final int code;
+        final String body, etag, lastModified;
+
+        Response(int code, String body, String etag, String lastModified)
+        {
+            this.code = code;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        boolean isNotModified()
+        {
+            return (code == HttpURLConnection.HTTP_NOT_MODIFIED);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.lazywizard.versionchecker;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Strips the #comments that Starsector's loose JSON allows but org.json
+// doesn't, in a single pass over the raw text. Unlike the old line-by-line
+// approach this tracks string state, so a # inside a string value (such as
+// a URL fragment) is left alone
+final class JSONSanitizer
+{
+    static JSONObject sanitize(final String rawJSON) throws JSONException
+    {
+        return new JSONObject(stripComments(rawJSON));
+    }
+
+    static String stripComments(final String rawJSON)
+    {
+        // Most master files have no comments at all, don't copy those
+        int nextComment = rawJSON.indexOf('#');
+        if (nextComment < 0)
+        {
+            return rawJSON;
+        }
+
+        final int length = rawJSON.length();
+        final char[] result = new char[length];
+        int nextString = rawJSON.indexOf('"'), runStart = 0, resultLength = 0;
+        while (nextComment >= 0)
+        {
+            // Skip over any string that starts before the comment, in case
+            // the comment character is actually part of the string
+            if (nextString >= 0 && nextString < nextComment)
+            {
+                final int stringEnd = findStringEnd(rawJSON, nextString + 1);
+                nextString = rawJSON.indexOf('"', stringEnd + 1);
+                if (nextComment <= stringEnd)
+                {
+                    nextComment = rawJSON.indexOf('#', stringEnd + 1);
+                }
+
+                continue;
+            }
+
+            // Copy everything before the comment, then skip to the end
+            // of the line (the line break itself is kept as whitespace)
+            rawJSON.getChars(runStart, nextComment, result, resultLength);
+            resultLength += nextComment - runStart;
+            runStart = rawJSON.indexOf('\n', nextComment);
+            if (runStart < 0)
+            {
+                runStart = length;
+                break;
+            }
+
+            nextComment = rawJSON.indexOf('#', runStart);
+            if (nextString >= 0 && nextString < runStart)
+            {
+                nextString = rawJSON.indexOf('"', runStart);
+            }
+        }
+
+        rawJSON.getChars(runStart, length, result, resultLength);
+        resultLength += length - runStart;
+        return new String(result, 0, resultLength);
+    }
+
+    // Returns the index of the quote that closes the string starting at start.
+    // Only double-quoted strings are tracked, as an apostrophe in an unquoted
+    // value would otherwise swallow the rest of the file. An unterminated
+    // string ends at the next line break
+    private static int findStringEnd(final String rawJSON, final int start)
+    {
+        final int length = rawJSON.length();
+        for (int i = start; i < length; i++)
+        {
+            final char ch = rawJSON.charAt(i);
+            if (ch == '\\')
+            {
+                i++;
+            }
+            else if (ch == '"' || ch == '\n')
+            {
+                return i;
+            }
+        }
+
+        return length;
+    }
+
+    private JSONSanitizer()
+    {
+    }
+}
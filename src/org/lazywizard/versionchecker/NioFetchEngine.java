@@ -0,0 +1,1053 @@
+package org.lazywizard.versionchecker;
+
+import javax.net.ssl.*;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Fetch engine that runs every request at once on a single selector thread,
+// so the number of threads is no longer what limits how many master version
+// files can be downloaded at the same time. DNS lookups and local files can't
+// be done without blocking, so each is its own task on the shared executor:
+// lookups for different hosts run in parallel on up to all of its threads
+// (maxUpdateThreads + 2), not on one dedicated resolver thread.
+// Each request uses its own connection (HTTPS is done through an SSLEngine),
+// chunked responses are decoded, and redirects are followed
+final class NioFetchEngine implements FetchEngine
+{
+    private static final int MAX_REDIRECTS = 5, BUFFER_SIZE = 16 * 1024;
+    private static final byte[] LINE_END = {'\r', '\n'}, HEADER_END = {'\r', '\n', '\r', '\n'};
+    private final Selector selector;
+    private final SSLContext sslContext;
+    private final TaskGroup tasks;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final Set<Connection> connections = new HashSet<>();
+    private final int connectTimeout, readTimeout, maxBodySize;
+    private final AtomicBoolean isSelectorClaimed = new AtomicBoolean(false);
+    private volatile boolean isShutdown = false;
+
+    // Timeouts are in milliseconds, 0 means wait forever. maxBodySize is in
+    // bytes, 0 means no limit
+    NioFetchEngine(TaskGroup tasks, int connectTimeout, int readTimeout, int maxBodySize)
+            throws IOException
+    {
+        this.tasks = tasks;
+        this.maxBodySize = maxBodySize;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        try
+        {
+            sslContext = SSLContext.getDefault();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IOException("TLS is not available", ex);
+        }
+
+        selector = Selector.open();
+        tasks.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runSelector();
+            }
+        });
+    }
+
+    private static long getDeadline(int timeout)
+    {
+        return (timeout <= 0 ? Long.MAX_VALUE
+                : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    private static int indexOf(byte[] data, int length, byte[] target, int start)
+    {
+        outer:
+        for (int i = start; i <= length - target.length; i++)
+        {
+            for (int j = 0; j < target.length; j++)
+            {
+                if (data[i + j] != target[j])
+                {
+                    continue outer;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity)
+    {
+        final ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    // Runs on the selector thread, wakes it up if it's waiting
+    private void runOnSelector(Runnable task)
+    {
+        if (isShutdown)
+        {
+            throw new RejectedExecutionException("Fetch engine has been shut down");
+        }
+
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void fetch(final URL url, final RemoteFileCache.Entry cached,
+                      final FetchMetrics.Request metrics, final Callback callback)
+    {
+        resolveLater(new Exchange(url, cached, metrics, callback));
+    }
+
+    // One task per request, so a slow lookup doesn't hold up any other host
+    private void resolveLater(final Exchange exchange)
+    {
+        try
+        {
+            tasks.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    resolve(exchange);
+                }
+            });
+        }
+        catch (RejectedExecutionException ex)
+        {
+            exchange.callback.failed(new InterruptedIOException("Update check was cancelled"));
+        }
+    }
+
+    @Override
+    public int getMaxConcurrency()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void schedule(final Runnable task, final long delayMillis)
+    {
+        runOnSelector(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                timers.add(new Timer(System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(delayMillis), task));
+            }
+        });
+    }
+
+    @Override
+    public void shutdown()
+    {
+        isShutdown = true;
+        tasks.cancel();
+        selector.wakeup();
+
+        // The selector loop was cancelled before it got a chance to start
+        if (isSelectorClaimed.compareAndSet(false, true))
+        {
+            closeSelector();
+        }
+    }
+
+    private void closeSelector()
+    {
+        try
+        {
+            selector.close();
+        }
+        catch (IOException ex)
+        {
+            // Nothing else we can do
+        }
+    }
+
+    // Runs on a shared executor thread
+    private void resolve(final Exchange exchange)
+    {
+        final URL url = exchange.url;
+        final String protocol = url.getProtocol();
+        final boolean isSecure = "https".equalsIgnoreCase(protocol);
+        if (!isSecure && !"http".equalsIgnoreCase(protocol))
+        {
+            readLocal(exchange);
+            return;
+        }
+
+        final InetSocketAddress address;
+        try
+        {
+            final long startTime = System.nanoTime();
+            final InetAddress resolved = InetAddress.getByName(url.getHost());
+            exchange.metrics.dns = FetchMetrics.toMillis(System.nanoTime() - startTime);
+            address = new InetSocketAddress(resolved,
+                    url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+        }
+        catch (IOException ex)
+        {
+            exchange.callback.failed(ex);
+            return;
+        }
+
+        try
+        {
+            runOnSelector(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    final Connection conn = new Connection(exchange, isSecure);
+                    try
+                    {
+                        conn.open(address);
+                    }
+                    catch (IOException ex)
+                    {
+                        conn.fail(ex);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ex)
+        {
+            // Shut down while resolving, nobody is waiting on this request
+        }
+    }
+
+    // Local files (dev mode only) are read on a shared executor thread
+    private void readLocal(Exchange exchange)
+    {
+        final long startTime = System.nanoTime();
+        final String body;
+        try (ResponseBody.CountingInputStream stream
+                     = new ResponseBody.CountingInputStream(exchange.url.openStream()))
+        {
+            body = ResponseBody.read(stream, null, maxBodySize, exchange.url);
+            exchange.metrics.bytes = stream.count;
+        }
+        catch (IOException ex)
+        {
+            exchange.callback.failed(ex);
+            return;
+        }
+
+        exchange.metrics.download = FetchMetrics.toMillis(System.nanoTime() - startTime);
+        exchange.callback.completed(new HttpFetcher.Response(HttpURLConnection.HTTP_OK,
+                body, null, null));
+    }
+
+    // A bug in one task shouldn't take down every other request
+    private static void runSafely(Runnable task)
+    {
+        try
+        {
+            task.run();
+        }
+        catch (RuntimeException ex)
+        {
+            Log.error("Unexpected error in NIO fetch engine", ex);
+        }
+    }
+
+    private void runSelector()
+    {
+        if (!isSelectorClaimed.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        try
+        {
+            while (!isShutdown)
+            {
+                // Wait until the next timer or timeout, whichever comes first
+                final long now = System.nanoTime();
+                long nextDeadline = Long.MAX_VALUE;
+                if (!timers.isEmpty())
+                {
+                    nextDeadline = timers.peek().deadline;
+                }
+                for (Connection conn : connections)
+                {
+                    nextDeadline = Math.min(nextDeadline, conn.deadline);
+                }
+
+                if (nextDeadline == Long.MAX_VALUE)
+                {
+                    selector.select();
+                }
+                else if (nextDeadline > now)
+                {
+                    selector.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(nextDeadline - now)));
+                }
+                else
+                {
+                    selector.selectNow();
+                }
+
+                for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext(); )
+                {
+                    final SelectionKey key = iter.next();
+                    iter.remove();
+                    final Connection conn = (Connection) key.attachment();
+                    try
+                    {
+                        if (key.isValid() && key.isConnectable())
+                        {
+                            conn.finishConnect();
+                        }
+                        else if (key.isValid())
+                        {
+                            conn.pump();
+                        }
+                    }
+                    catch (IOException ex)
+                    {
+                        conn.fail(ex);
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        conn.fail(new IOException("Unexpected error loading " + conn.exchange.url, ex));
+                    }
+                }
+
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null)
+                {
+                    runSafely(task);
+                }
+
+                final long time = System.nanoTime();
+                while (!timers.isEmpty() && timers.peek().deadline <= time)
+                {
+                    runSafely(timers.poll().task);
+                }
+
+                for (Connection conn : new ArrayList<>(connections))
+                {
+                    if (conn.deadline <= time)
+                    {
+                        conn.fail(new SocketTimeoutException((conn.isConnected ? "Read" : "Connect")
+                                + " timed out for URL: " + conn.exchange.url));
+                    }
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException ex)
+        {
+            Log.error("NIO fetch engine stopped unexpectedly", ex);
+        }
+        finally
+        {
+            for (Connection conn : new ArrayList<>(connections))
+            {
+                conn.close();
+            }
+
+            closeSelector();
+        }
+    }
+
+    private static final class Exchange
+    {
+        private final URL url;
+        private final RemoteFileCache.Entry cached;
+        private final FetchMetrics.Request metrics;
+        private final Callback callback;
+        private final int redirects;
+
+        private Exchange(URL url, RemoteFileCache.Entry cached,
+                         FetchMetrics.Request metrics, Callback callback)
+        {
+            this(url, cached, metrics, callback, 0);
+        }
+
+        private Exchange(URL url, RemoteFileCache.Entry cached,
+                         FetchMetrics.Request metrics, Callback callback, int redirects)
+        {
+            this.url = url;
+            this.cached = cached;
+            this.metrics = metrics;
+            this.callback = callback;
+            this.redirects = redirects;
+        }
+
+        private ByteBuffer createRequest()
+        {
+            final String file = url.getFile();
+            final StringBuilder request = new StringBuilder(256)
+                    .append("GET ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.1\r\n")
+                    .append("Host: ").append(url.getHost());
+            if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort())
+            {
+                request.append(':').append(url.getPort());
+            }
+
+            request.append("\r\nUser-Agent: Java/").append(System.getProperty("java.version"))
+                    .append("\r\nAccept: */*\r\nAccept-Encoding: ").append(ResponseBody.ACCEPT_ENCODING)
+                    .append("\r\nConnection: close\r\n");
+            if (cached != null)
+            {
+                if (cached.etag != null)
+                {
+                    request.append("If-None-Match: ").append(cached.etag).append("\r\n");
+                }
+                if (cached.lastModified != null)
+                {
+                    request.append("If-Modified-Since: ").append(cached.lastModified).append("\r\n");
+                }
+            }
+
+            request.append("\r\n");
+            return ByteBuffer.wrap(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    // Everything in here runs on the selector thread
+    private final class Connection
+    {
+        private final Exchange exchange;
+        private final SSLEngine ssl;
+        private final ByteBuffer request;
+        private final ResponseBuffer received = new ResponseBuffer();
+        private ByteBuffer netIn, netOut, appIn;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private long deadline, startTime;
+        private boolean isConnected = false, isHandshakeDone = false, isClosed = false,
+                isDone = false;
+        private int headerLength = -1, contentLength = -1;
+        private boolean isChunked = false;
+
+        private Connection(Exchange exchange, boolean isSecure)
+        {
+            this.exchange = exchange;
+            this.request = exchange.createRequest();
+            if (isSecure)
+            {
+                final URL url = exchange.url;
+                ssl = sslContext.createSSLEngine(url.getHost(),
+                        url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+                ssl.setUseClientMode(true);
+                final SSLParameters params = ssl.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(params);
+                final int packetSize = ssl.getSession().getPacketBufferSize();
+                netIn = ByteBuffer.allocate(packetSize);
+                netOut = ByteBuffer.allocate(packetSize);
+                appIn = ByteBuffer.allocate(ssl.getSession().getApplicationBufferSize());
+            }
+            else
+            {
+                ssl = null;
+                appIn = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+        }
+
+        private void open(InetSocketAddress address) throws IOException
+        {
+            connections.add(this);
+            startTime = System.nanoTime();
+            deadline = getDeadline(connectTimeout);
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            if (channel.connect(address))
+            {
+                finishConnect();
+            }
+        }
+
+        private void finishConnect() throws IOException
+        {
+            if (!channel.finishConnect())
+            {
+                return;
+            }
+
+            isConnected = true;
+            deadline = getDeadline(readTimeout);
+            if (ssl != null)
+            {
+                ssl.beginHandshake();
+            }
+            else
+            {
+                onHandshakeDone();
+            }
+
+            pump();
+        }
+
+        // Connect time includes the TLS handshake, same as the threaded engine
+        private void onHandshakeDone()
+        {
+            isHandshakeDone = true;
+            final long now = System.nanoTime();
+            exchange.metrics.connect = FetchMetrics.toMillis(now - startTime);
+            startTime = now;
+        }
+
+        private void setInterest(int ops)
+        {
+            key.interestOps(ops);
+        }
+
+        // Moves the request and response along as far as possible without blocking
+        private void pump() throws IOException
+        {
+            if (ssl == null)
+            {
+                pumpPlain();
+            }
+            else
+            {
+                pumpSecure();
+            }
+        }
+
+        private void pumpPlain() throws IOException
+        {
+            if (request.hasRemaining())
+            {
+                channel.write(request);
+                if (request.hasRemaining())
+                {
+                    setInterest(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+
+            while (true)
+            {
+                appIn.clear();
+                final int read = channel.read(appIn);
+                if (read < 0)
+                {
+                    onEndOfStream();
+                    return;
+                }
+                if (read == 0)
+                {
+                    setInterest(SelectionKey.OP_READ);
+                    return;
+                }
+
+                appIn.flip();
+                if (onReceived())
+                {
+                    return;
+                }
+            }
+        }
+
+        private void pumpSecure() throws IOException
+        {
+            while (true)
+            {
+                // Anything already encrypted has to be sent before anything else
+                if (netOut.position() > 0)
+                {
+                    netOut.flip();
+                    channel.write(netOut);
+                    netOut.compact();
+                    if (netOut.position() > 0)
+                    {
+                        setInterest(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+
+                final HandshakeStatus status = ssl.getHandshakeStatus();
+                if (status == HandshakeStatus.NEED_TASK)
+                {
+                    Runnable task;
+                    while ((task = ssl.getDelegatedTask()) != null)
+                    {
+                        task.run();
+                    }
+                }
+                else if (status == HandshakeStatus.NEED_WRAP)
+                {
+                    wrap(ByteBuffer.allocate(0));
+                }
+                else if (status == HandshakeStatus.NEED_UNWRAP)
+                {
+                    if (!unwrap())
+                    {
+                        if (isClosed)
+                        {
+                            throw new EOFException("Connection closed during TLS handshake with "
+                                    + exchange.url.getHost());
+                        }
+
+                        setInterest(SelectionKey.OP_READ);
+                        return;
+                    }
+                }
+                else
+                {
+                    if (!isHandshakeDone)
+                    {
+                        onHandshakeDone();
+                    }
+
+                    if (request.hasRemaining())
+                    {
+                        wrap(request);
+                        continue;
+                    }
+
+                    if (!unwrap())
+                    {
+                        if (isClosed)
+                        {
+                            onEndOfStream();
+                        }
+                        else
+                        {
+                            setInterest(SelectionKey.OP_READ);
+                        }
+
+                        return;
+                    }
+
+                    // The response was complete and has already been handled
+                    if (isDone)
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void wrap(ByteBuffer source) throws IOException
+        {
+            final SSLEngineResult result = ssl.wrap(source, netOut);
+            switch (result.getStatus())
+            {
+                case BUFFER_OVERFLOW:
+                    // Only grow the buffer if flushing it wouldn't make enough room
+                    if (netOut.position() == 0)
+                    {
+                        netOut = enlarge(netOut, ssl.getSession().getPacketBufferSize());
+                    }
+                    break;
+                case CLOSED:
+                    throw new SSLException("TLS connection closed while sending request");
+                default:
+                    break;
+            }
+        }
+
+        // Returns true if any progress was made, false if we need to wait for more data
+        private boolean unwrap() throws IOException
+        {
+            while (true)
+            {
+                netIn.flip();
+                final SSLEngineResult result = ssl.unwrap(netIn, appIn);
+                netIn.compact();
+                switch (result.getStatus())
+                {
+                    case OK:
+                        if (result.bytesConsumed() > 0 || result.bytesProduced() > 0)
+                        {
+                            appIn.flip();
+                            onReceived();
+                            appIn.clear();
+                            return true;
+                        }
+                        break;
+                    case BUFFER_OVERFLOW:
+                        appIn = enlarge(appIn, ssl.getSession().getApplicationBufferSize());
+                        continue;
+                    case BUFFER_UNDERFLOW:
+                        if (netIn.remaining() == 0)
+                        {
+                            netIn = enlarge(netIn, ssl.getSession().getPacketBufferSize());
+                        }
+                        break;
+                    case CLOSED:
+                        isClosed = true;
+                        return false;
+                }
+
+                final int read = channel.read(netIn);
+                if (read < 0)
+                {
+                    isClosed = true;
+                    return false;
+                }
+                if (read == 0)
+                {
+                    return false;
+                }
+            }
+        }
+
+        // Returns true once the full response has been received and handled
+        private boolean onReceived() throws IOException
+        {
+            if (!appIn.hasRemaining())
+            {
+                return false;
+            }
+
+            deadline = getDeadline(readTimeout);
+            if (received.size() == 0)
+            {
+                final long now = System.nanoTime();
+                exchange.metrics.firstByte = FetchMetrics.toMillis(now - startTime);
+                startTime = now;
+            }
+
+            received.write(appIn.array(), appIn.position(), appIn.remaining());
+            appIn.position(appIn.limit());
+            ResponseBody.checkLength(received.size() - Math.max(0, headerLength),
+                    maxBodySize, exchange.url);
+            if (isComplete())
+            {
+                complete();
+                return true;
+            }
+
+            return false;
+        }
+
+        private void onEndOfStream() throws IOException
+        {
+            if (headerLength < 0)
+            {
+                throw new EOFException("Connection closed before a response was received from "
+                        + exchange.url);
+            }
+
+            complete();
+        }
+
+        // We ask the server to close the connection once it's done, but
+        // knowing the length up front saves waiting on it to do so
+        private boolean isComplete() throws IOException
+        {
+            final byte[] data = received.array();
+            final int length = received.size();
+            if (headerLength < 0)
+            {
+                final int end = indexOf(data, length, HEADER_END, 0);
+                if (end < 0)
+                {
+                    return false;
+                }
+
+                headerLength = end + HEADER_END.length;
+                final Map<String, String> headers = parseHeaders(data);
+                final String declaredLength = headers.get("content-length");
+                isChunked = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"));
+                if (!isChunked && declaredLength != null)
+                {
+                    try
+                    {
+                        contentLength = Integer.parseInt(declaredLength);
+                    }
+                    catch (NumberFormatException ex)
+                    {
+                        contentLength = -1;
+                    }
+                }
+                else if (!isChunked && getStatus(data) == HttpURLConnection.HTTP_NOT_MODIFIED)
+                {
+                    contentLength = 0;
+                }
+
+                // Don't bother waiting on anything too large to be a version file
+                final int status = getStatus(data);
+                if (status >= HttpURLConnection.HTTP_OK && status < 300)
+                {
+                    ResponseBody.checkLength(contentLength, maxBodySize, exchange.url);
+                }
+            }
+
+            if (isChunked)
+            {
+                return (decodeChunked(data, length, true) != null);
+            }
+
+            return (contentLength >= 0 && length - headerLength >= contentLength);
+        }
+
+        private int getStatus(byte[] data) throws IOException
+        {
+            final int lineEnd = indexOf(data, headerLength, LINE_END, 0);
+            final String[] statusLine = new String(data, 0, lineEnd,
+                    StandardCharsets.ISO_8859_1).split(" ", 3);
+            try
+            {
+                return Integer.parseInt(statusLine[1]);
+            }
+            catch (ArrayIndexOutOfBoundsException | NumberFormatException ex)
+            {
+                throw new ProtocolException("Invalid HTTP status line from " + exchange.url);
+            }
+        }
+
+        // Header names are lowercase, only the first of any repeated header is kept
+        private Map<String, String> parseHeaders(byte[] data)
+        {
+            final String[] lines = new String(data, 0, headerLength,
+                    StandardCharsets.ISO_8859_1).split("\r\n");
+            final Map<String, String> headers = new HashMap<>();
+            for (int i = 1; i < lines.length; i++)
+            {
+                final int split = lines[i].indexOf(':');
+                if (split > 0)
+                {
+                    final String name = lines[i].substring(0, split).trim().toLowerCase();
+                    if (!headers.containsKey(name))
+                    {
+                        headers.put(name, lines[i].substring(split + 1).trim());
+                    }
+                }
+            }
+
+            return headers;
+        }
+
+        // Returns null if the body isn't complete yet
+        private byte[] decodeChunked(byte[] data, int length, boolean checkOnly) throws IOException
+        {
+            final ByteArrayOutputStream body = (checkOnly ? null
+                    : new ByteArrayOutputStream(length - headerLength));
+            int pos = headerLength;
+            while (true)
+            {
+                final int lineEnd = indexOf(data, length, LINE_END, pos);
+                if (lineEnd < 0)
+                {
+                    return null;
+                }
+
+                // Chunk extensions (anything after a ;) are ignored
+                String size = new String(data, pos, lineEnd - pos, StandardCharsets.ISO_8859_1);
+                final int extension = size.indexOf(';');
+                if (extension >= 0)
+                {
+                    size = size.substring(0, extension);
+                }
+
+                final int chunkSize;
+                try
+                {
+                    chunkSize = Integer.parseInt(size.trim(), 16);
+                }
+                catch (NumberFormatException ex)
+                {
+                    throw new ProtocolException("Invalid chunk size from " + exchange.url);
+                }
+
+                pos = lineEnd + 2;
+                if (chunkSize == 0)
+                {
+                    // Trailers aren't used, just wait for the blank line after them
+                    return (indexOf(data, length, LINE_END, pos) < 0 ? null
+                            : (body == null ? new byte[0] : body.toByteArray()));
+                }
+
+                if (length < pos + chunkSize + 2)
+                {
+                    return null;
+                }
+
+                if (body != null)
+                {
+                    body.write(data, pos, chunkSize);
+                }
+
+                pos += chunkSize + 2;
+            }
+        }
+
+        // The callback is always told the outcome, even if the response was invalid
+        private void complete()
+        {
+            isDone = true;
+            close();
+            exchange.metrics.download = FetchMetrics.toMillis(System.nanoTime() - startTime);
+            try
+            {
+                final HttpFetcher.Response response = createResponse();
+                if (response != null)
+                {
+                    exchange.callback.completed(response);
+                }
+            }
+            catch (IOException ex)
+            {
+                exchange.callback.failed(ex);
+            }
+        }
+
+        // Returns null if the request was redirected elsewhere
+        private HttpFetcher.Response createResponse() throws IOException
+        {
+            final byte[] data = received.array();
+            final int length = received.size();
+            final int status = getStatus(data);
+            final Map<String, String> headers = parseHeaders(data);
+            exchange.metrics.bytes = length - headerLength;
+
+            // Follow redirects the same way HttpURLConnection would: only within
+            // the same protocol, so both engines succeed or fail on the same URLs
+            final String location = headers.get("location");
+            if (location != null && (status == 301 || status == 302 || status == 303
+                    || status == 307 || status == 308))
+            {
+                if (exchange.redirects >= MAX_REDIRECTS)
+                {
+                    throw new ProtocolException("Too many redirects from " + exchange.url);
+                }
+
+                final URL target = new URL(exchange.url, location);
+                if (!exchange.url.getProtocol().equalsIgnoreCase(target.getProtocol()))
+                {
+                    throw HttpFetcher.RejectedException.crossProtocolRedirect(
+                            exchange.url, target.toString());
+                }
+
+                final Exchange redirect = new Exchange(target,
+                        exchange.cached, exchange.metrics, exchange.callback, exchange.redirects + 1);
+                Log.debug("Following redirect from " + exchange.url + " to " + redirect.url);
+                resolveLater(redirect);
+                return null;
+            }
+
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+            {
+                return new HttpFetcher.Response(status, null, null, null);
+            }
+
+            if (status >= HttpURLConnection.HTTP_BAD_REQUEST)
+            {
+                throw new HttpFetcher.StatusException(status, exchange.url.toString());
+            }
+
+            final InputStream raw;
+            if (isChunked)
+            {
+                final byte[] decoded = decodeChunked(data, length, false);
+                if (decoded == null)
+                {
+                    throw new EOFException("Incomplete chunked response from " + exchange.url);
+                }
+
+                raw = new ByteArrayInputStream(decoded);
+            }
+            else
+            {
+                final int bodyLength = (contentLength >= 0
+                        ? Math.min(contentLength, length - headerLength) : length - headerLength);
+                raw = new ByteArrayInputStream(data, headerLength, bodyLength);
+            }
+
+            final String body = ResponseBody.read(ResponseBody.decompress(raw,
+                    headers.get("content-encoding"), exchange.url),
+                    headers.get("content-type"), maxBodySize, exchange.url);
+            return new HttpFetcher.Response(status, body,
+                    headers.get("etag"), headers.get("last-modified"));
+        }
+
+        private void fail(IOException ex)
+        {
+            if (isDone)
+            {
+                return;
+            }
+
+            isDone = true;
+            close();
+            exchange.callback.failed(ex);
+        }
+
+        private void close()
+        {
+            connections.remove(this);
+            if (key != null)
+            {
+                key.cancel();
+            }
+
+            if (channel != null)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException ex)
+                {
+                    // Nothing else we can do
+                }
+            }
+        }
+    }
+
+    // Lets the response be searched without copying it after every read
+    private static final class ResponseBuffer extends ByteArrayOutputStream
+    {
+        private ResponseBuffer()
+        {
+            super(BUFFER_SIZE);
+        }
+
+        private byte[] array()
+        {
+            return buf;
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer>
+    {
+        private final long deadline;
+        private final Runnable task;
+
+        private Timer(long deadline, Runnable task)
+        {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other)
+        {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.lazywizard.versionchecker;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Stores the HTTP validators (ETag/Last-Modified) and body of every master
+// version file we've downloaded, so unchanged files can be revalidated with
+// a conditional GET instead of being downloaded again every launch.
+// Also stores recent check results so they can be reused without any network
+// access at all until they are older than the configured time-to-live, and
+// how long each URL usually takes to download so slow ones can start first.
+// Only what was used during the current update check is saved, so files and
+// results for removed or updated mods don't pile up between launches
+final class RemoteFileCache
+{
+    private static final String CACHE_FILE = "lw_version_checker_cache.json";
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+    private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+    // URLs and result keys looked up or stored since this cache was loaded
+    private final Set<String> used = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean isDirty = false;
+
+    static RemoteFileCache load()
+    {
+        final RemoteFileCache cache = new RemoteFileCache();
+        try
+        {
+            final String raw = CommonFiles.read(CACHE_FILE);
+            if (raw == null)
+            {
+                return cache;
+            }
+
+            final JSONObject json = new JSONObject(raw);
+            final JSONObject files = json.getJSONObject("files");
+            for (Iterator<?> iter = files.keys(); iter.hasNext(); )
+            {
+                final String url = (String) iter.next();
+                final JSONObject entry = files.getJSONObject(url);
+                cache.entries.put(url, new Entry(entry.optString("etag", null),
+                        entry.optString("lastModified", null), entry.getString("body")));
+            }
+
+            final JSONObject results = json.optJSONObject("results");
+            if (results != null)
+            {
+                for (Iterator<?> iter = results.keys(); iter.hasNext(); )
+                {
+                    final String key = (String) iter.next();
+                    final JSONObject result = results.getJSONObject(key);
+                    cache.results.put(key, new Result(result.getLong("checked"),
+                            result.getString("value")));
+                }
+            }
+
+            final JSONObject latencies = json.optJSONObject("latencies");
+            if (latencies != null)
+            {
+                for (Iterator<?> iter = latencies.keys(); iter.hasNext(); )
+                {
+                    final String url = (String) iter.next();
+                    cache.latencies.put(url, latencies.getLong(url));
+                }
+            }
+
+            Log.debug("Loaded " + cache.entries.size() + " cached master version files, "
+                    + cache.results.size() + " cached results and "
+                    + cache.latencies.size() + " download times");
+        }
+        catch (Exception ex)
+        {
+            // A missing or corrupt cache just means we download everything again
+            Log.warn("Failed to load master version file cache, starting fresh", ex);
+            cache.entries.clear();
+            cache.results.clear();
+            cache.latencies.clear();
+        }
+
+        return cache;
+    }
+
+    // Returns true if anything was removed
+    private boolean removeUnused(Map<String, ?> map)
+    {
+        return map.keySet().retainAll(used);
+    }
+
+    void save()
+    {
+        if (removeUnused(entries) | removeUnused(results) | removeUnused(latencies))
+        {
+            isDirty = true;
+        }
+
+        if (!isDirty)
+        {
+            return;
+        }
+
+        try
+        {
+            final JSONObject files = new JSONObject();
+            for (Map.Entry<String, Entry> tmp : entries.entrySet())
+            {
+                final Entry entry = tmp.getValue();
+                final JSONObject json = new JSONObject();
+                json.put("etag", entry.etag);
+                json.put("lastModified", entry.lastModified);
+                json.put("body", entry.body);
+                files.put(tmp.getKey(), json);
+            }
+
+            final JSONObject results = new JSONObject();
+            for (Map.Entry<String, Result> tmp : this.results.entrySet())
+            {
+                final Result result = tmp.getValue();
+                final JSONObject json = new JSONObject();
+                json.put("checked", result.checked);
+                json.put("value", result.value);
+                results.put(tmp.getKey(), json);
+            }
+
+            final JSONObject latencies = new JSONObject();
+            for (Map.Entry<String, Long> tmp : this.latencies.entrySet())
+            {
+                latencies.put(tmp.getKey(), tmp.getValue().longValue());
+            }
+
+            final JSONObject json = new JSONObject();
+            json.put("files", files);
+            json.put("results", results);
+            json.put("latencies", latencies);
+            CommonFiles.write(CACHE_FILE, json.toString(2));
+            isDirty = false;
+        }
+        catch (JSONException ex)
+        {
+            Log.warn("Failed to save master version file cache", ex);
+        }
+    }
+
+    // Keeps anything stored for this URL when the cache is saved, for when
+    // it isn't needed this time (ex: every mod using it had a cached result)
+    void keep(String url)
+    {
+        used.add(url);
+    }
+
+    Entry get(String url)
+    {
+        used.add(url);
+        return entries.get(url);
+    }
+
+    void put(String url, String etag, String lastModified, String body)
+    {
+        // Without a validator there's nothing to revalidate against later
+        if (etag == null && lastModified == null)
+        {
+            remove(url);
+            return;
+        }
+
+        used.add(url);
+        entries.put(url, new Entry(etag, lastModified, body));
+        isDirty = true;
+    }
+
+    void remove(String url)
+    {
+        if (entries.remove(url) != null)
+        {
+            isDirty = true;
+        }
+    }
+
+    // Returns null if there's no result for this key or it has expired
+    String getResult(String key, long maxAgeMillis)
+    {
+        used.add(key);
+        final Result result = results.get(key);
+        if (result == null)
+        {
+            return null;
+        }
+
+        final long age = System.currentTimeMillis() - result.checked;
+        if (age < 0 || age >= maxAgeMillis)
+        {
+            results.remove(key);
+            isDirty = true;
+            return null;
+        }
+
+        return result.value;
+    }
+
+    void putResult(String key, String value)
+    {
+        used.add(key);
+        results.put(key, new Result(System.currentTimeMillis(), value));
+        isDirty = true;
+    }
+
+    // Returns how long this URL usually takes to download in milliseconds,
+    // or -1 if it's never been downloaded
+    long getLatency(String url)
+    {
+        used.add(url);
+        final Long latency = latencies.get(url);
+        return (latency == null ? -1 : latency);
+    }
+
+    // Averaged with previous sessions so one unusually slow or fast download
+    // doesn't decide where the URL is placed next time
+    void putLatency(String url, long latencyMillis)
+    {
+        final long previous = getLatency(url);
+        latencies.put(url, (previous < 0 ? latencyMillis : (previous + latencyMillis) / 2));
+        isDirty = true;
+    }
+
+    private static final class Result
+    {
+        private final long checked;
+        private final String value;
+
+        private Result(long checked, String value)
+        {
+            this.checked = checked;
+            this.value = value;
+        }
+    }
+
+    static final class Entry
+    {
+        final String etag, lastModified, body;
+
+        private Entry(String etag, String lastModified, String body)
+        {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
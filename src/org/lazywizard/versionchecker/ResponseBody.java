@@ -0,0 +1,197 @@
+package org.lazywizard.versionchecker;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.*;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+// Body handling shared by both fetch engines. Bodies are read straight into a
+// byte buffer that never grows past the size limit and decoded in one go, and
+// anything that's obviously a web page rather than a version file (a wrong
+// link, or a host's error or login page) is rejected without reading the rest.
+// That's decided by the body alone, as plenty of hosts serve raw files with
+// the wrong Content-Type
+final class ResponseBody
+{
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ResponseBody()
+    {
+    }
+
+    // maxSize is in bytes, 0 means no limit
+    static void checkLength(long length, int maxSize, URL url)
+            throws HttpFetcher.RejectedException
+    {
+        if (maxSize > 0 && length > maxSize)
+        {
+            throw new HttpFetcher.RejectedException("Response from " + url
+                    + " is larger than the " + (maxSize / 1024) + "KB limit");
+        }
+    }
+
+    static InputStream decompress(InputStream in, String contentEncoding, URL url)
+            throws IOException
+    {
+        final String encoding = (contentEncoding == null ? ""
+                : contentEncoding.trim().toLowerCase(Locale.ROOT));
+        switch (encoding)
+        {
+            case "":
+            case "identity":
+                return in;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case "deflate":
+                return new InflaterInputStream(in);
+            default:
+                throw new HttpFetcher.RejectedException("Unsupported content encoding \""
+                        + contentEncoding + "\" from " + url);
+        }
+    }
+
+    // Falls back to UTF-8 if no charset was given or it isn't supported
+    private static Charset getCharset(String contentType)
+    {
+        if (contentType != null)
+        {
+            final int start = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+            if (start >= 0)
+            {
+                String name = contentType.substring(start + 8);
+                final int end = name.indexOf(';');
+                name = (end < 0 ? name : name.substring(0, end)).trim().replace("\"", "");
+                try
+                {
+                    return Charset.forName(name);
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    // Covers both illegal and unsupported charset names
+                }
+            }
+        }
+
+        return StandardCharsets.UTF_8;
+    }
+
+    // Version files are JSON and the vanilla update file is plain text, so a
+    // body that starts with a tag is never something we can use. Returns
+    // false if there's nothing but whitespace to look at yet
+    private static boolean checkStart(ByteBuffer buffer, URL url)
+            throws HttpFetcher.RejectedException
+    {
+        final byte[] data = buffer.array();
+        for (int i = 0; i < buffer.position(); i++)
+        {
+            final int b = data[i] & 0xFF;
+            // Skip whitespace and any UTF-8 byte order mark
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n'
+                    || b == 0xEF || b == 0xBB || b == 0xBF)
+            {
+                continue;
+            }
+
+            if (b == '<')
+            {
+                throw new HttpFetcher.RejectedException("Expected a version file but got"
+                        + " HTML or XML from " + url);
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    // Reads and decodes the (already decompressed) body. maxSize is in
+    // bytes after decompression, 0 means no limit
+    static String read(InputStream in, String contentType, int maxSize, URL url)
+            throws IOException
+    {
+        final int limit = (maxSize > 0 ? maxSize : Integer.MAX_VALUE - 8);
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(BUFFER_SIZE, limit));
+        boolean isChecked = false;
+        while (true)
+        {
+            if (!buffer.hasRemaining())
+            {
+                if (buffer.capacity() >= limit)
+                {
+                    // Exactly at the limit is fine, anything past it isn't
+                    if (in.read() < 0)
+                    {
+                        break;
+                    }
+
+                    checkLength(limit + 1L, maxSize, url);
+                }
+
+                final ByteBuffer larger = ByteBuffer.allocate(
+                        (int) Math.min(buffer.capacity() * 2L, limit));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+
+            final int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read < 0)
+            {
+                break;
+            }
+
+            buffer.position(buffer.position() + read);
+            if (!isChecked)
+            {
+                isChecked = checkStart(buffer, url);
+            }
+        }
+
+        buffer.flip();
+        return getCharset(contentType).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(buffer).toString();
+    }
+
+    static final class CountingInputStream extends FilterInputStream
+    {
+        long count = 0;
+
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final int read = super.read();
+            if (read >= 0)
+            {
+                count++;
+            }
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            final int read = super.read(b, off, len);
+            if (read > 0)
+            {
+                count += read;
+            }
+
+            return read;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.lazywizard.versionchecker;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+
+// Everything submitted to the shared executor on behalf of a single update
+// check, so it can all be cancelled together without shutting down the
+// executor itself (which is reused by the next check)
+final class TaskGroup
+{
+    private final ScheduledExecutorService executor;
+    private final Queue<Future<?>> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean isCancelled = false;
+
+    TaskGroup(ScheduledExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    private <T extends Future<?>> T track(T task)
+    {
+        tasks.add(task);
+
+        // Catch anything submitted while cancel() was running
+        if (isCancelled)
+        {
+            task.cancel(true);
+        }
+
+        return task;
+    }
+
+    private void checkCancelled()
+    {
+        if (isCancelled)
+        {
+            throw new RejectedExecutionException("Update check was cancelled");
+        }
+    }
+
+    <T> Future<T> submit(Callable<T> task)
+    {
+        checkCancelled();
+        return track(executor.submit(task));
+    }
+
+    void execute(Runnable task)
+    {
+        checkCancelled();
+        track(executor.submit(task));
+    }
+
+    void schedule(Runnable task, long delayMillis)
+    {
+        checkCancelled();
+        track(executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    // Interrupts anything still running, and stops anything queued from starting
+    void cancel()
+    {
+        isCancelled = true;
+        Future<?> task;
+        while ((task = tasks.poll()) != null)
+        {
+            task.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.lazywizard.versionchecker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.RejectedExecutionException;
+
+// The original fetch engine: every request blocks one of the shared executor's
+// threads for its entire duration. Responses are always read to the end and
+// closed rather than disconnected so the JRE's keep-alive cache can hand the
+// same connection (and TLS session) to the next request for that host.
+// The JRE's keep-alive settings are left alone, as they're shared with the
+// game and every other mod. Its default of 5 idle connections per host
+// already covers the default maxConnectionsPerHost
+final class ThreadedFetchEngine implements FetchEngine
+{
+    private final TaskGroup tasks;
+    private final int numThreads, connectTimeout, readTimeout, maxBodySize;
+
+    // Timeouts are in milliseconds, 0 means wait forever. HttpFetcher never
+    // runs more than numThreads requests at once on this engine. maxBodySize
+    // is in bytes, 0 means no limit
+    ThreadedFetchEngine(TaskGroup tasks, int numThreads, int connectTimeout,
+                        int readTimeout, int maxBodySize)
+    {
+        this.tasks = tasks;
+        this.numThreads = Math.max(1, numThreads);
+        this.maxBodySize = maxBodySize;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public void fetch(final URL url, final RemoteFileCache.Entry cached,
+                      final FetchMetrics.Request metrics, final Callback callback)
+    {
+        final long queuedAt = System.nanoTime();
+        final Runnable request = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Time spent waiting for a free thread counts as queueing
+                metrics.queueWait += FetchMetrics.toMillis(System.nanoTime() - queuedAt);
+
+                final HttpFetcher.Response response;
+                try
+                {
+                    response = fetch(url, cached, metrics);
+                }
+                catch (IOException ex)
+                {
+                    callback.failed(ex);
+                    return;
+                }
+
+                callback.completed(response);
+            }
+        };
+
+        try
+        {
+            tasks.execute(request);
+        }
+        catch (RejectedExecutionException ex)
+        {
+            callback.failed(new InterruptedIOException("Update check was cancelled"));
+        }
+    }
+
+    @Override
+    public int getMaxConcurrency()
+    {
+        return numThreads;
+    }
+
+    @Override
+    public void schedule(Runnable task, long delayMillis)
+    {
+        tasks.schedule(task, delayMillis);
+    }
+
+    @Override
+    public void shutdown()
+    {
+        tasks.cancel();
+    }
+
+    // Bytes are counted as they arrive, before decompression
+    private String readFully(URLConnection conn, InputStream stream,
+                             FetchMetrics.Request metrics) throws IOException
+    {
+        final long startTime = System.nanoTime();
+        final ResponseBody.CountingInputStream counter = new ResponseBody.CountingInputStream(stream);
+        try
+        {
+            final URL url = conn.getURL();
+            return ResponseBody.read(ResponseBody.decompress(counter,
+                    conn.getContentEncoding(), url), conn.getContentType(), maxBodySize, url);
+        }
+        finally
+        {
+            metrics.download = FetchMetrics.toMillis(System.nanoTime() - startTime);
+            metrics.bytes = counter.count;
+        }
+    }
+
+    // Drain and close an error body so the connection can be reused
+    private static void discard(HttpURLConnection conn)
+    {
+        try (InputStream stream = conn.getErrorStream())
+        {
+            if (stream != null)
+            {
+                final byte[] buffer = new byte[1024];
+                while (stream.read(buffer) >= 0)
+                {
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            // Connection won't be reused, nothing else to do
+        }
+    }
+
+    // Only for the metrics, the JRE caches lookups so connecting won't resolve
+    // the host again. Skipped when going through a proxy, which does its own
+    // lookups (and the host might not resolve locally at all). Never fails
+    // the request, connecting will report the real problem if there is one
+    private static void timeLookup(URL url, FetchMetrics.Request metrics)
+    {
+        try
+        {
+            final ProxySelector selector = ProxySelector.getDefault();
+            if (selector != null)
+            {
+                for (Proxy proxy : selector.select(url.toURI()))
+                {
+                    if (proxy.type() != Proxy.Type.DIRECT)
+                    {
+                        return;
+                    }
+                }
+            }
+
+            final long startTime = System.nanoTime();
+            InetAddress.getByName(url.getHost());
+            metrics.dns = FetchMetrics.toMillis(System.nanoTime() - startTime);
+        }
+        catch (IOException | URISyntaxException | RuntimeException ex)
+        {
+            metrics.dns = -1;
+        }
+    }
+
+    // Validators are only sent if the cached entry is non-null
+    private HttpFetcher.Response fetch(URL url, RemoteFileCache.Entry cached,
+                                       FetchMetrics.Request metrics) throws IOException
+    {
+        final URLConnection conn = url.openConnection();
+        conn.setUseCaches(false);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+
+        // Local files (dev mode only) don't need pooling or conditional requests
+        if (!(conn instanceof HttpURLConnection))
+        {
+            try (InputStream stream = conn.getInputStream())
+            {
+                return new HttpFetcher.Response(HttpURLConnection.HTTP_OK,
+                        readFully(conn, stream, metrics), null, null);
+            }
+        }
+
+        final HttpURLConnection http = (HttpURLConnection) conn;
+        http.setRequestProperty("Accept-Encoding", ResponseBody.ACCEPT_ENCODING);
+        if (cached != null)
+        {
+            if (cached.etag != null)
+            {
+                http.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached.lastModified != null)
+            {
+                http.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+        }
+
+        timeLookup(url, metrics);
+
+        // Includes the TLS handshake for HTTPS, unless a kept-alive connection is reused
+        long startTime = System.nanoTime();
+        http.connect();
+        long now = System.nanoTime();
+        metrics.connect = FetchMetrics.toMillis(now - startTime);
+
+        startTime = now;
+        final int code = http.getResponseCode();
+        metrics.firstByte = FetchMetrics.toMillis(System.nanoTime() - startTime);
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED)
+        {
+            http.getInputStream().close();
+            return new HttpFetcher.Response(code, null, null, null);
+        }
+
+        // HttpURLConnection has already followed any redirect it's willing to,
+        // so this one changes protocol
+        if (code >= HttpURLConnection.HTTP_MULT_CHOICE && code < HttpURLConnection.HTTP_BAD_REQUEST)
+        {
+            final String location = http.getHeaderField("Location");
+            http.getInputStream().close();
+            if (location == null)
+            {
+                throw new HttpFetcher.StatusException(code, url.toString());
+            }
+
+            throw HttpFetcher.RejectedException.crossProtocolRedirect(url, location);
+        }
+
+        if (code >= HttpURLConnection.HTTP_BAD_REQUEST)
+        {
+            discard(http);
+            throw new HttpFetcher.StatusException(code, url.toString());
+        }
+
+        // Don't bother reading anything too large to be a version file
+        final String body;
+        try (InputStream stream = http.getInputStream())
+        {
+            try
+            {
+                ResponseBody.checkLength(http.getContentLengthLong(), maxBodySize, url);
+            }
+            catch (HttpFetcher.RejectedException ex)
+            {
+                // Drop the connection rather than draining a body we don't want
+                http.disconnect();
+                throw ex;
+            }
+
+            body = readFully(http, stream, metrics);
+        }
+
+        return new HttpFetcher.Response(code, body, http.getHeaderField("ETag"),
+                http.getHeaderField("Last-Modified"));
+    }
+}
@@ -3,73 +3,211 @@ package org.lazywizard.versionchecker;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-
+import java.util.concurrent.atomic.AtomicReference;
+
+// Collects the results of an update check as each one comes in, from any
+// thread. Every change swaps in a new immutable state that shares everything
+// but the new result with the one before it, so adding a result is constant
+// time no matter how many came before. Counts are always current, and each
+// list is built at most once per change to it (the first time it's read) and
+// then shared by every later read until another result arrives
 final class UpdateInfo
 {
-    private final List<ModInfo> hasUpdate = new ArrayList<>();
-    private final List<ModInfo> hasNoUpdate = new ArrayList<>();
-    private final List<ModInfo> failedCheck = new ArrayList<>();
-    private int numModsChecked = 0;
-    private String ssUpdate = null, ssUpdateError = null;
+    private static final int NONE = -1, HAS_UPDATE = 0, HAS_NO_UPDATE = 1, FAILED = 2;
+    private final AtomicReference<State> state = new AtomicReference<>(new State());
+
+    private void update(int category, ModInfo mod, String ssUpdate, String ssUpdateError)
+    {
+        while (true)
+        {
+            final State current = state.get();
+            if (state.compareAndSet(current,
+                    new State(current, category, mod, ssUpdate, ssUpdateError)))
+            {
+                return;
+            }
+        }
+    }
 
     void setSSUpdate(String latestVersion)
     {
-        this.ssUpdate = latestVersion;
+        update(NONE, null, latestVersion, null);
     }
 
     String getSSUpdate()
     {
-        return ssUpdate;
+        return state.get().ssUpdate;
     }
 
     void setFailedSSError(String ssUpdateError)
     {
-        this.ssUpdateError = ssUpdateError;
+        update(NONE, null, null, ssUpdateError);
     }
 
     String getFailedSSError()
     {
-        return ssUpdateError;
+        return state.get().ssUpdateError;
     }
 
     void addFailed(ModInfo mod)
     {
-        failedCheck.add(mod);
-        numModsChecked++;
+        update(FAILED, mod, null, null);
     }
 
     List<ModInfo> getFailed()
     {
-        return new ArrayList<>(failedCheck);
+        return toList(state.get().failed);
     }
 
     void addUpdate(ModInfo mod)
     {
-        hasUpdate.add(mod);
-        numModsChecked++;
+        update(HAS_UPDATE, mod, null, null);
     }
 
     List<ModInfo> getHasUpdate()
     {
-        return new ArrayList<>(hasUpdate);
+        return toList(state.get().hasUpdate);
     }
 
     void addNoUpdate(ModInfo mod)
     {
-        hasNoUpdate.add(mod);
-        numModsChecked++;
+        update(HAS_NO_UPDATE, mod, null, null);
+    }
+
+    List<ModInfo> getHasNoUpdate()
+    {
+        return toList(state.get().hasNoUpdate);
+    }
+
+    int getNumFailed()
+    {
+        return size(state.get().failed);
+    }
+
+    int getNumHasUpdate()
+    {
+        return size(state.get().hasUpdate);
+    }
+
+    int getNumHasNoUpdate()
+    {
+        return size(state.get().hasNoUpdate);
     }
 
     int getNumModsChecked()
     {
-        return numModsChecked;
+        return state.get().numModsChecked;
     }
 
-    List<ModInfo> getHasNoUpdate()
+    // Unlike calling the getters one at a time, every field of a snapshot
+    // is from the same moment
+    Snapshot getSnapshot()
+    {
+        final State current = state.get();
+        Snapshot snapshot = current.snapshot;
+        if (snapshot == null)
+        {
+            snapshot = new Snapshot(current);
+            current.snapshot = snapshot;
+        }
+
+        return snapshot;
+    }
+
+    private static int size(Node head)
+    {
+        return (head == null ? 0 : head.size);
+    }
+
+    // In the order the results were added. Built once per node, as a node
+    // and everything after it never changes. Two threads may both build it
+    // the first time, but they'll build identical lists
+    private static List<ModInfo> toList(Node head)
+    {
+        if (head == null)
+        {
+            return Collections.emptyList();
+        }
+
+        List<ModInfo> list = head.list;
+        if (list == null)
+        {
+            final ModInfo[] mods = new ModInfo[head.size];
+            for (Node node = head; node != null; node = node.next)
+            {
+                mods[node.size - 1] = node.mod;
+            }
+
+            list = Collections.unmodifiableList(Arrays.asList(mods));
+            head.list = list;
+        }
+
+        return list;
+    }
+
+    // Newest result first, size counts this node and everything after it
+    private static final class Node
+    {
+        private final ModInfo mod;
+        private final Node next;
+        private final int size;
+        private volatile List<ModInfo> list = null;
+
+        private Node(ModInfo mod, Node next)
+        {
+            this.mod = mod;
+            this.next = next;
+            this.size = (next == null ? 1 : next.size + 1);
+        }
+    }
+
+    private static final class State
     {
-        return new ArrayList<>(hasNoUpdate);
+        private final Node hasUpdate, hasNoUpdate, failed;
+        private final String ssUpdate, ssUpdateError;
+        private final int numModsChecked;
+        private volatile Snapshot snapshot = null;
+
+        private State()
+        {
+            hasUpdate = hasNoUpdate = failed = null;
+            ssUpdate = ssUpdateError = null;
+            numModsChecked = 0;
+        }
+
+        private State(State previous, int category, ModInfo mod,
+                      String ssUpdate, String ssUpdateError)
+        {
+            hasUpdate = (category == HAS_UPDATE ? new Node(mod, previous.hasUpdate)
+                    : previous.hasUpdate);
+            hasNoUpdate = (category == HAS_NO_UPDATE ? new Node(mod, previous.hasNoUpdate)
+                    : previous.hasNoUpdate);
+            failed = (category == FAILED ? new Node(mod, previous.failed) : previous.failed);
+            this.ssUpdate = (ssUpdate != null ? ssUpdate : previous.ssUpdate);
+            this.ssUpdateError = (ssUpdateError != null ? ssUpdateError
+                    : previous.ssUpdateError);
+            numModsChecked = previous.numModsChecked + (category == NONE ? 0 : 1);
+        }
+    }
+
+    static final class Snapshot
+    {
+        final List<ModInfo> hasUpdate, hasNoUpdate, failed;
+        final String ssUpdate, ssUpdateError;
+        final int numModsChecked;
+
+        private Snapshot(State state)
+        {
+            hasUpdate = toList(state.hasUpdate);
+            hasNoUpdate = toList(state.hasNoUpdate);
+            failed = toList(state.failed);
+            ssUpdate = state.ssUpdate;
+            ssUpdateError = state.ssUpdateError;
+            numModsChecked = state.numModsChecked;
+        }
     }
 
     static final class ModInfo implements Comparable<ModInfo>
@@ -150,12 +288,19 @@ final class UpdateInfo
         private static final String MOD_NEXUS_FORMAT
                 = "https://www.nexusmods.com/starsector/mods/%d?tab=files";
         private final int major, minor, modThreadId, modNexusId;
-        private final String patch, masterURL, modName;
+        private final String patch, masterURL, masterId, modName;
+        // Precomputed so comparisons don't need to reparse the patch string:
+        // the leading digits of the patch (-1 if it doesn't start with one),
+        // whatever follows them, and the case-folded patch
+        private final long patchNumber;
+        private final String patchSuffix, patchKey, version;
 
         VersionFile(final JSONObject json, boolean isMaster) throws JSONException
         {
             // Parse mod details (local version file only)
             masterURL = (isMaster ? null : json.getString("masterVersionFile"));
+            // If set, masterURL is a version index shared by many mods
+            masterId = (isMaster ? null : json.optString("masterVersionId", null));
             modName = (isMaster ? null : json.optString("modName", "<unknown>"));
             modThreadId = (isMaster ? 0 : (int) json.optDouble("modThreadId", 0));
             modNexusId = (isMaster ? 0 : (int) json.optDouble("modNexusId", 0));
@@ -165,6 +310,57 @@ final class UpdateInfo
             major = modVersion.optInt("major", 0);
             minor = modVersion.optInt("minor", 0);
             patch = modVersion.optString("patch", "0");
+
+            // Parse the patch once here rather than on every comparison
+            int digits = 0;
+            long number = 0;
+            while (digits < patch.length() && Character.isDigit(patch.charAt(digits)))
+            {
+                // Absurdly long patch numbers are clamped instead of overflowing
+                number = Math.min(number * 10 + Character.digit(patch.charAt(digits), 10),
+                        Integer.MAX_VALUE);
+                digits++;
+            }
+
+            patchNumber = (digits > 0 ? number : -1);
+            patchSuffix = patch.substring(digits);
+            patchKey = foldCase(patch);
+            version = createVersionString(major, minor, patch);
+        }
+
+        // Produces a string whose natural ordering matches compareToIgnoreCase()
+        private static String foldCase(String str)
+        {
+            final char[] chars = str.toCharArray();
+            for (int i = 0; i < chars.length; i++)
+            {
+                chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+            }
+
+            return new String(chars);
+        }
+
+        JSONObject toJSON() throws JSONException
+        {
+            final JSONObject json = new JSONObject();
+            if (masterURL != null)
+            {
+                json.put("masterVersionFile", masterURL);
+                if (masterId != null)
+                {
+                    json.put("masterVersionId", masterId);
+                }
+                json.put("modName", modName);
+                json.put("modThreadId", modThreadId);
+                json.put("modNexusId", modNexusId);
+            }
+
+            final JSONObject modVersion = new JSONObject();
+            modVersion.put("major", major);
+            modVersion.put("minor", minor);
+            modVersion.put("patch", patch);
+            json.put("modVersion", modVersion);
+            return json;
         }
 
         boolean isSameAs(VersionFile other)
@@ -192,7 +388,7 @@ final class UpdateInfo
             return (!str.isEmpty() && Character.isDigit(str.charAt(0)));
         }
 
-        String getVersion()
+        private static String createVersionString(int major, int minor, String patch)
         {
             // Don't show patch number if there isn't one
             if (patch.equals("0"))
@@ -211,11 +407,22 @@ final class UpdateInfo
             }
         }
 
+        String getVersion()
+        {
+            return version;
+        }
+
         String getMasterURL()
         {
             return masterURL;
         }
 
+        // Returns null unless this mod's entry is in a version index
+        String getMasterId()
+        {
+            return masterId;
+        }
+
         String getUpdateURL()
         {
             if (VCModPlugin.preferNexus)
@@ -237,51 +444,21 @@ final class UpdateInfo
             return getName() + " " + getVersion();
         }
 
-        private static String[] splitPatch(String patch)
-        {
-            final StringBuilder digit = new StringBuilder(patch.length());
-            String str = "";
-            for (int i = 0; i < patch.length(); i++)
-            {
-                final char ch = patch.charAt(i);
-                if (Character.isDigit(ch))
-                {
-                    digit.append(ch);
-                }
-                else
-                {
-                    str = patch.substring(i);
-                    break;
-                }
-            }
-
-            //System.out.println(digit + " | " + str);
-            return new String[]
-                    {
-                            digit.toString(), str
-                    };
-        }
-
-        private static int comparePatch(String patch, String other)
+        private int comparePatch(VersionFile other)
         {
             // Compare digits as digits, so v11 is considered newer than v9
-            if (startsWithDigit(patch) && startsWithDigit(other))
+            if (patchNumber >= 0 && other.patchNumber >= 0)
             {
-                final String[] subPatch = splitPatch(patch),
-                        subOther = splitPatch(other);
-                final int numPatch = Integer.parseInt(subPatch[0]),
-                        numOther = Integer.parseInt(subOther[0]);
-
                 // If digits are the same, compare any remaining characters
-                if (numPatch == numOther)
+                if (patchNumber == other.patchNumber)
                 {
-                    return subPatch[1].compareTo(subOther[1]);
+                    return patchSuffix.compareTo(other.patchSuffix);
                 }
 
-                return Integer.compare(numPatch, numOther);
+                return Long.compare(patchNumber, other.patchNumber);
             }
 
-            return patch.compareToIgnoreCase(other);
+            return patchKey.compareTo(other.patchKey);
         }
 
         @Override
@@ -294,14 +471,14 @@ final class UpdateInfo
             }
 
             if (major == other.major && minor == other.minor
-                    && patch.equalsIgnoreCase(other.patch))
+                    && patchKey.equals(other.patchKey))
             {
                 return 0;
             }
 
             if ((major < other.major) || (major == other.major && minor < other.minor)
                     || (major == other.major && minor == other.minor
-                    && comparePatch(patch, other.patch) < 0))
+                    && comparePatch(other) < 0))
             {
                 return -1;
             }
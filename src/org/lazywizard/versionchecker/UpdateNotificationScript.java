@@ -2,12 +2,11 @@ package org.lazywizard.versionchecker;
 
 import com.fs.starfarer.api.EveryFrameScript;
 import com.fs.starfarer.api.Global;
-import com.fs.starfarer.api.ModSpecAPI;
 import com.fs.starfarer.api.campaign.*;
 import com.fs.starfarer.api.campaign.rules.MemoryAPI;
 import com.fs.starfarer.api.combat.EngagementResultAPI;
 import org.lazywizard.versionchecker.UpdateInfo.ModInfo;
-import org.lazywizard.versionchecker.UpdateInfo.VersionFile;
+import org.lazywizard.versionchecker.UpdateReport.Entry;
 import org.lwjgl.input.Keyboard;
 
 import java.awt.Color;
@@ -16,10 +15,10 @@ import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
 import java.io.IOException;
 import java.net.URI;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -27,15 +26,18 @@ final class UpdateNotificationScript implements EveryFrameScript
 {
     private float timeUntilWarn = .75f; // Ensures text appears
     private boolean isUpdateCheckDone = false, hasWarned = false, isDone = false;
-    private transient Future<UpdateInfo> futureUpdateInfo;
-    private transient UpdateInfo updateInfo;
-    private transient List<ModSpecAPI> unsupportedMods;
-
-    UpdateNotificationScript(final List<ModSpecAPI> unsupportedMods,
-                             final Future<UpdateInfo> updateInfo)
+    private transient Future<UpdateReport> futureReport, futureLastReport;
+    private transient Queue<ModInfo> completedMods;
+    // lastReport is the previous session's report, shown until report arrives
+    private transient UpdateReport report, lastReport;
+
+    UpdateNotificationScript(final Future<UpdateReport> report,
+                             final Future<UpdateReport> lastReport,
+                             final Queue<ModInfo> completedMods)
     {
-        this.unsupportedMods = unsupportedMods;
-        this.futureUpdateInfo = updateInfo;
+        this.futureReport = report;
+        this.futureLastReport = lastReport;
+        this.completedMods = completedMods;
     }
 
     @Override
@@ -50,12 +52,12 @@ final class UpdateNotificationScript implements EveryFrameScript
         return true;
     }
 
-    private void warnUpdates(CampaignUIAPI ui)
+    private static void warnUpdates(CampaignUIAPI ui, UpdateReport report)
     {
-        final int modsWithoutUpdates = updateInfo.getHasNoUpdate().size(),
-                modsWithUpdates = updateInfo.getHasUpdate().size(),
-                modsThatFailedUpdateCheck = updateInfo.getFailed().size(),
-                modsRequiringManualCheck = unsupportedMods.size();
+        final int modsWithoutUpdates = report.hasNoUpdate.size(),
+                modsWithUpdates = report.hasUpdate.size(),
+                modsThatFailedUpdateCheck = report.failed.size(),
+                modsRequiringManualCheck = report.unsupported.size();
 
         // Display number of mods that are up-to-date
         if (modsWithoutUpdates > 0)
@@ -90,16 +92,22 @@ final class UpdateNotificationScript implements EveryFrameScript
                     Integer.toString(modsRequiringManualCheck), "", Color.YELLOW, Color.BLACK);
         }
 
+        // Name every version file that couldn't be loaded, those mods weren't checked
+        for (String path : report.invalidFiles)
+        {
+            ui.addMessage("Failed to parse version file " + path, Color.RED);
+        }
+
         // Warn if a Starsector update is available
-        if (updateInfo.getSSUpdate() != null)
+        if (report.ssUpdate != null)
         {
-            ui.addMessage("There is a game update available: " + updateInfo.getSSUpdate(), Color.WHITE,
-                    updateInfo.getSSUpdate(), "", Color.YELLOW, Color.BLACK);
+            ui.addMessage("There is a game update available: " + report.ssUpdate, Color.WHITE,
+                    report.ssUpdate, "", Color.YELLOW, Color.BLACK);
         }
-        else if (updateInfo.getFailedSSError() != null)
+        else if (report.ssUpdateError != null)
         {
             ui.addMessage("Failed to retrieve latest SS version: "
-                    + updateInfo.getFailedSSError(), Color.RED);
+                    + report.ssUpdateError, Color.RED);
         }
 
         String keyName = Keyboard.getKeyName(VCModPlugin.notificationKey);
@@ -107,6 +115,147 @@ final class UpdateNotificationScript implements EveryFrameScript
                 keyName, "", Color.CYAN, Color.BLACK);
     }
 
+    // Show updates as soon as they're found instead of waiting on the slowest
+    // mod. Updates that were already in the last report aren't repeated
+    private void warnCompletedMods(CampaignUIAPI ui)
+    {
+        ModInfo mod;
+        while ((mod = completedMods.poll()) != null)
+        {
+            if (!mod.failedUpdateCheck() && mod.isUpdateAvailable() && (lastReport == null
+                    || !isUnchanged(lastReport.hasUpdate, mod.getName(), mod.getVersionString())))
+            {
+                ui.addMessage("Found update for " + mod.getName() + " ("
+                                + mod.getVersionString() + ")", Color.WHITE,
+                        mod.getName(), "", Color.YELLOW, Color.BLACK);
+            }
+        }
+    }
+
+    private static boolean isUnchanged(List<Entry> entries, String name, String version)
+    {
+        final Entry entry = UpdateReport.find(entries, name);
+        return (entry != null && entry.version.equals(version));
+    }
+
+    // Shown while this session's update check is still running
+    private void warnLastReport(CampaignUIAPI ui)
+    {
+        final String age = lastReport.getAge();
+        ui.addMessage("Showing update results from " + age + ", checking for changes...",
+                Color.WHITE, age, "", Color.CYAN, Color.BLACK);
+        warnUpdates(ui, lastReport);
+    }
+
+    // Once the update check is done, only mention what's different from the
+    // last report. New updates were already announced by warnCompletedMods
+    private void warnChanges(CampaignUIAPI ui)
+    {
+        boolean hasChanges = false;
+        for (Entry mod : lastReport.hasUpdate)
+        {
+            if (UpdateReport.find(report.hasNoUpdate, mod.name) != null)
+            {
+                ui.addMessage(mod.name + " is now up to date.", Color.WHITE,
+                        mod.name, "", Color.GREEN, Color.BLACK);
+                hasChanges = true;
+            }
+        }
+
+        for (Entry mod : report.hasUpdate)
+        {
+            if (!isUnchanged(lastReport.hasUpdate, mod.name, mod.version))
+            {
+                hasChanges = true;
+            }
+        }
+
+        int newlyFailed = 0;
+        for (Entry mod : report.failed)
+        {
+            if (UpdateReport.find(lastReport.failed, mod.name) == null)
+            {
+                newlyFailed++;
+            }
+        }
+
+        if (newlyFailed > 0)
+        {
+            ui.addMessage("Update check failed for " + newlyFailed
+                            + (newlyFailed == 1 ? " mod." : " mods."), Color.WHITE,
+                    Integer.toString(newlyFailed), "", Color.RED, Color.BLACK);
+            hasChanges = true;
+        }
+
+        int newlyUnsupported = 0;
+        for (Entry mod : report.unsupported)
+        {
+            if (!isUnchanged(lastReport.unsupported, mod.name, mod.version))
+            {
+                newlyUnsupported++;
+            }
+        }
+
+        if (newlyUnsupported > 0)
+        {
+            ui.addMessage("Manual version checking required for "
+                            + newlyUnsupported + (newlyUnsupported == 1
+                            ? " new unsupported mod." : " new unsupported mods."), Color.WHITE,
+                    Integer.toString(newlyUnsupported), "", Color.YELLOW, Color.BLACK);
+            hasChanges = true;
+        }
+
+        for (String path : report.invalidFiles)
+        {
+            if (!lastReport.invalidFiles.contains(path))
+            {
+                ui.addMessage("Failed to parse version file " + path, Color.RED);
+                hasChanges = true;
+            }
+        }
+
+        if (report.ssUpdate != null && !report.ssUpdate.equals(lastReport.ssUpdate))
+        {
+            ui.addMessage("There is a game update available: " + report.ssUpdate, Color.WHITE,
+                    report.ssUpdate, "", Color.YELLOW, Color.BLACK);
+            hasChanges = true;
+        }
+        else if (report.ssUpdate == null && report.ssUpdateError != null
+                && lastReport.ssUpdateError == null)
+        {
+            ui.addMessage("Failed to retrieve latest SS version: "
+                    + report.ssUpdateError, Color.RED);
+            hasChanges = true;
+        }
+
+        String keyName = Keyboard.getKeyName(VCModPlugin.notificationKey);
+        ui.addMessage((hasChanges ? "Update check finished. Press " + keyName
+                        : "Update check finished, nothing has changed. Press " + keyName)
+                        + " for detailed update information.", Color.WHITE,
+                keyName, "", Color.CYAN, Color.BLACK);
+    }
+
+    // Doesn't block, lastReport stays null until the last report has been loaded
+    private void checkLastReport()
+    {
+        if (futureLastReport == null || !futureLastReport.isDone())
+        {
+            return;
+        }
+
+        try
+        {
+            lastReport = futureLastReport.get();
+        }
+        catch (Exception ex)
+        {
+            // Nothing to show, the user will just have to wait for this check
+            Log.warn("Failed to retrieve the last update report", ex);
+        }
+
+        futureLastReport = null;
+    }
+
     @Override
     public void advance(float amount)
     {
@@ -120,17 +269,51 @@ final class UpdateNotificationScript implements EveryFrameScript
         // Check if the update thread has finished
         if (!isUpdateCheckDone)
         {
-            // We can't do anything if it's not done checking for updates
-            if (!futureUpdateInfo.isDone())
+            // Until it has, show the last session's results (if any) and
+            // report each new update as it comes in
+            if (!futureReport.isDone())
             {
+                if (timeUntilWarn <= 0f)
+                {
+                    if (!hasWarned)
+                    {
+                        checkLastReport();
+                        if (lastReport != null)
+                        {
+                            warnLastReport(ui);
+                            hasWarned = true;
+                        }
+                    }
+
+                    warnCompletedMods(ui);
+                }
+                else
+                {
+                    timeUntilWarn -= amount;
+                }
+
+                // The last report can be viewed while waiting on this one
+                if (lastReport != null && Keyboard.isKeyDown(VCModPlugin.notificationKey))
+                {
+                    ui.showInteractionDialog(new UpdateNotificationDialog(lastReport, true),
+                            Global.getSector().getPlayerFleet());
+                }
+
                 return;
             }
 
             // Attempt to retrieve the update results from the other thread
             try
             {
-                updateInfo = futureUpdateInfo.get(1l, TimeUnit.SECONDS);
-                futureUpdateInfo = null;
+                report = futureReport.get(1l, TimeUnit.SECONDS);
+                futureReport = null;
+            }
+            catch (CancellationException ex)
+            {
+                // Replaced by a newer update check, which has its own script
+                Global.getSector().removeTransientScript(this);
+                isDone = true;
+                return;
             }
             catch (Exception ex)
             {
@@ -142,42 +325,60 @@ final class UpdateNotificationScript implements EveryFrameScript
                 return;
             }
 
+            // No enabled mods have version files, nothing to report
+            if (report == null)
+            {
+                Global.getSector().removeTransientScript(this);
+                isDone = true;
+                return;
+            }
+
             isUpdateCheckDone = true;
         }
 
-        // On first game load, warn about any updates available
-        if (!hasWarned && timeUntilWarn <= 0f)
+        // On first game load, warn about any updates available, or only what
+        // changed if the last report was already shown
+        if (timeUntilWarn > 0f)
+        {
+            timeUntilWarn -= amount;
+        }
+        else if (!hasWarned)
         {
-            warnUpdates(ui);
+            warnCompletedMods(ui);
+            warnUpdates(ui, report);
             hasWarned = true;
         }
-        else
+        else if (lastReport != null)
         {
-            timeUntilWarn -= amount;
+            warnCompletedMods(ui);
+            warnChanges(ui);
+            lastReport = null;
         }
 
         // User can press a key to summon a detailed update report
         if (Keyboard.isKeyDown(VCModPlugin.notificationKey))
         {
-            ui.showInteractionDialog(new UpdateNotificationDialog(
-                    updateInfo, unsupportedMods), Global.getSector().getPlayerFleet());
+            ui.showInteractionDialog(new UpdateNotificationDialog(report, false),
+                    Global.getSector().getPlayerFleet());
         }
     }
 
-    private static class UpdateNotificationDialog implements InteractionDialogPlugin
+    static class UpdateNotificationDialog implements InteractionDialogPlugin
     {
         private static final String ANNOUNCEMENT_BOARD
                 = "http://fractalsoftworks.com/forum/index.php?board=1.0";
         private static final String MOD_INDEX_THREAD
                 = "http://fractalsoftworks.com/forum/index.php?topic=177.0";
-        private static final int ENTRIES_PER_PAGE = 5, LINE_LENGTH = 45;
+        private static final int ENTRIES_PER_PAGE = 5;
+        // Set if this is the last session's report, shown while checking again
+        private final String age;
         private final String ssUpdate, ssUpdateError;
-        private final List<ModInfo> hasUpdate, hasNoUpdate, failedCheck;
-        private final List<ModSpecAPI> unsupported;
+        private final List<Entry> hasUpdate, hasNoUpdate, failedCheck, unsupported;
+        private final List<String> invalidFiles;
         private InteractionDialogAPI dialog;
         private TextPanelAPI text;
         private OptionPanelAPI options;
-        private List<ModInfo> currentList;
+        private List<Entry> currentList;
         private int currentPage = 1;
 
         private enum Menu
@@ -195,127 +396,17 @@ final class UpdateNotificationScript implements EveryFrameScript
             EXIT
         }
 
-        private UpdateNotificationDialog(UpdateInfo updateInfo, List<ModSpecAPI> unsupported)
-        {
-            hasUpdate = updateInfo.getHasUpdate();
-            hasNoUpdate = updateInfo.getHasNoUpdate();
-            failedCheck = updateInfo.getFailed();
-            ssUpdate = updateInfo.getSSUpdate();
-            ssUpdateError = updateInfo.getFailedSSError();
-            this.unsupported = unsupported;
-
-            // Sort by mod name
-            Collections.sort(hasUpdate);
-            Collections.sort(hasNoUpdate);
-            Collections.sort(failedCheck);
-            Collections.sort(unsupported, new Comparator<ModSpecAPI>()
-            {
-                @Override
-                public int compare(ModSpecAPI o1, ModSpecAPI o2)
-                {
-                    return o1.getName().compareTo(o2.getName());
-                }
-            });
-        }
-
-        // Taken from LazyLib's StringUtils, still up-to-date as of LazyLib v2.1
-        private static String wrap(String toWrap)
+        // The report is already sorted and wrapped, so there's nothing left to do here
+        private UpdateNotificationDialog(UpdateReport report, boolean isLastReport)
         {
-            if (toWrap == null || LINE_LENGTH <= 1)
-            {
-                return "";
-            }
-
-            // Analyse each line of the message seperately
-            String[] lines = toWrap.split("\n");
-            // StringBuilder doesn't auto-resize down, so setting the length here
-            // is an optimization even though length is reset to 0 each line
-            StringBuilder line = new StringBuilder(LINE_LENGTH);
-            StringBuilder message = new StringBuilder((int) (toWrap.length() * 1.1f));
-            for (String rawLine : lines)
-            {
-                // Check if the string even needs to be broken up
-                if (rawLine.length() <= LINE_LENGTH)
-                {
-                    // Entire message fits into a single line
-                    message.append(rawLine).append("\n");
-                }
-                else
-                {
-                    // Clear the StringBuilder so we can generate a new line
-                    line.setLength(0);
-                    // Split the line up into the individual words, and append each
-                    // word to the next line until the character limit is reached
-                    String[] words = rawLine.split(" ");
-                    for (int y = 0; y < words.length; y++)
-                    {
-                        // If this word by itself is longer than the line limit,
-                        // break it up into multiple sub-lines separated by a dash
-                        if (words[y].length() >= LINE_LENGTH)
-                        {
-                            // Make sure to post the previous line in queue, if any
-                            if (line.length() > 0)
-                            {
-                                message.append(line.toString()).append("\n");
-                                line.setLength(0);
-                            }
-
-                            // Break up word into multiple lines separated with dash
-                            while (words[y].length() > LINE_LENGTH)
-                            {
-                                message.append(words[y].substring(0, LINE_LENGTH - 1))
-                                        .append("-\n");
-                                words[y] = words[y].substring(LINE_LENGTH - 1);
-                            }
-
-                            // Add any remaining text to the next line
-                            if (!words[y].isEmpty())
-                            {
-                                // If we have reached the end of the message, ensure
-                                // that we post the remaining part of the queue
-                                if (y == (words.length - 1))
-                                {
-                                    message.append(words[y]).append("\n");
-                                }
-                                else
-                                {
-                                    line.append(words[y]);
-                                }
-                            }
-                        }
-                        // If this word would put us over the length limit, post
-                        // the queue and back up a step (re-check this word with
-                        // a blank line - this is in case it trips the above block)
-                        else if (words[y].length() + line.length() >= LINE_LENGTH)
-                        {
-                            message.append(line.toString()).append("\n");
-                            line.setLength(0);
-                            y--;
-                        }
-                        // This word won't put us over the limit, add it to the queue
-                        else
-                        {
-                            line.append(words[y]);
-                            line.append(" ");
-
-                            // If we have reached the end of the message, ensure
-                            // that we post the remaining part of the queue
-                            if (y == (words.length - 1))
-                            {
-                                message.append(line.toString()).append("\n");
-                            }
-                        }
-                    }
-                }
-            }
-
-            // Don't end with a newline if the original string didn't do so
-            if (!toWrap.endsWith("\n"))
-            {
-                message.deleteCharAt(message.length() - 1);
-            }
-
-            return message.toString();
+            age = (isLastReport ? report.getAge() : null);
+            hasUpdate = report.hasUpdate;
+            hasNoUpdate = report.hasNoUpdate;
+            failedCheck = report.failed;
+            unsupported = report.unsupported;
+            invalidFiles = report.invalidFiles;
+            ssUpdate = report.ssUpdate;
+            ssUpdateError = report.ssUpdateError;
         }
 
         private void generateModMenu()
@@ -326,13 +417,12 @@ final class UpdateNotificationScript implements EveryFrameScript
                     numPages = 1 + ((currentList.size() - 1) / ENTRIES_PER_PAGE);
             for (int x = offset, y = 1; x < max; x++, y++)
             {
-                ModInfo mod = currentList.get(x);
-                VersionFile local = mod.getLocalVersion();
-                options.addOption(local.getName(), local);
-                options.setEnabled(local, local.getUpdateURL() != null);
-                if (local.getUpdateURL() != null)
+                Entry mod = currentList.get(x);
+                options.addOption(mod.name, mod);
+                options.setEnabled(mod, mod.updateURL != null);
+                if (mod.updateURL != null)
                 {
-                    options.setTooltip(local, "URL: " + local.getUpdateURL());
+                    options.setTooltip(mod, "URL: " + mod.updateURL);
                 }
             }
 
@@ -366,6 +456,13 @@ final class UpdateNotificationScript implements EveryFrameScript
             {
                 case MAIN_MENU:
                     text.clear();
+                    if (age != null)
+                    {
+                        text.addParagraph("These are the results of the update check from "
+                                + age + ". Still checking for changes...");
+                        text.highlightInLastPara(Color.CYAN, age);
+                    }
+
                     final int numUpToDate = hasNoUpdate.size(),
                             numHasUpdate = hasUpdate.size(),
                             numFailed = failedCheck.size(),
@@ -377,12 +474,11 @@ final class UpdateNotificationScript implements EveryFrameScript
                             (numUpToDate == 0 ? "." : ":"));
                     text.highlightInLastPara(Color.GREEN,
                             Integer.toString(numUpToDate));
-                    for (ModInfo info : hasNoUpdate)
+                    for (Entry info : hasNoUpdate)
                     {
-                        text.addParagraph(wrap(" - " + info.getName() + " ("
-                                + info.getVersionString() + ")"));
-                        text.highlightInLastPara(info.isLocalNewer() ? Color.CYAN
-                                : Color.GREEN, info.getName(), " vs ");
+                        text.addParagraph(info.line);
+                        text.highlightInLastPara(info.isLocalNewer ? Color.CYAN
+                                : Color.GREEN, info.name, " vs ");
                     }
 
                     text.addParagraph((numHasUpdate == 1)
@@ -391,11 +487,10 @@ final class UpdateNotificationScript implements EveryFrameScript
                             (numHasUpdate == 0 ? "." : ":"));
                     text.highlightInLastPara((numHasUpdate > 0 ? Color.YELLOW
                             : Color.GREEN), Integer.toString(numHasUpdate));
-                    for (ModInfo info : hasUpdate)
+                    for (Entry info : hasUpdate)
                     {
-                        text.addParagraph(wrap(" - " + info.getName() + " ("
-                                + info.getVersionString() + ")"));
-                        text.highlightInLastPara(Color.YELLOW, info.getName(), " vs ");
+                        text.addParagraph(info.line);
+                        text.highlightInLastPara(Color.YELLOW, info.name, " vs ");
                     }
 
                     if (numFailed > 0)
@@ -405,12 +500,10 @@ final class UpdateNotificationScript implements EveryFrameScript
                                 : "There are " + numFailed + " mods that failed their update checks:");
                         text.highlightInLastPara((numFailed > 0 ? Color.RED
                                 : Color.GREEN), Integer.toString(numFailed));
-                        for (ModInfo info : failedCheck)
+                        for (Entry info : failedCheck)
                         {
-                            text.addParagraph(wrap(" - " + info.getName() + " ("
-                                    + info.getVersionString() + ", "
-                                    + info.getErrorMessage() + ")"));
-                            text.highlightInLastPara(Color.RED, info.getName());
+                            text.addParagraph(info.line);
+                            text.highlightInLastPara(Color.RED, info.name);
                         }
                     }
 
@@ -421,11 +514,23 @@ final class UpdateNotificationScript implements EveryFrameScript
                                 : "There are " + numUnsupported + " unsupported mods enabled:");
                         text.highlightInLastPara((numUnsupported > 0 ? Color.YELLOW
                                 : Color.GREEN), Integer.toString(numUnsupported));
-                        for (ModSpecAPI mod : unsupported)
+                        for (Entry mod : unsupported)
+                        {
+                            text.addParagraph(mod.line);
+                            text.highlightInLastPara(Color.YELLOW, mod.name);
+                        }
+                    }
+
+                    if (!invalidFiles.isEmpty())
+                    {
+                        final int numInvalid = invalidFiles.size();
+                        text.addParagraph((numInvalid == 1)
+                                ? "There is 1 version file that failed to load:"
+                                : "There are " + numInvalid + " version files that failed to load:");
+                        text.highlightInLastPara(Color.RED, Integer.toString(numInvalid));
+                        for (String path : invalidFiles)
                         {
-                            text.addParagraph(wrap(" - " + mod.getName() + " ("
-                                    + mod.getVersion() + ")"));
-                            text.highlightInLastPara(Color.YELLOW, mod.getName());
+                            text.addParagraph(UpdateReport.wrap(" - " + path));
                         }
                     }
 
@@ -541,9 +646,9 @@ final class UpdateNotificationScript implements EveryFrameScript
                     generateModMenu();
                     break;
                 case OPEN_ALL_UPDATES:
-                    for (ModInfo mod : hasUpdate)
+                    for (Entry mod : hasUpdate)
                     {
-                        openModThread(mod.getLocalVersion());
+                        openModThread(mod);
                     }
                     goToMenu(Menu.MAIN_MENU);
                     options.setEnabled(Menu.OPEN_ALL_UPDATES, false);
@@ -569,12 +674,12 @@ final class UpdateNotificationScript implements EveryFrameScript
             goToMenu(Menu.MAIN_MENU);
         }
 
-        private void openModThread(VersionFile mod)
+        private void openModThread(Entry mod)
         {
             // Some flavors of Linux don't support the Desktop API without certain libraries installed
             if (!Desktop.isDesktopSupported())
             {
-                final StringSelection modUrl = new StringSelection(mod.getUpdateURL());
+                final StringSelection modUrl = new StringSelection(mod.updateURL);
                 Toolkit.getDefaultToolkit().getSystemClipboard().setContents(modUrl, modUrl);
                 text.addParagraph("Opening the browser directly is not supported on this OS!\n" +
                         "The forum thread URL has been copied to the clipboard instead.");
@@ -584,10 +689,10 @@ final class UpdateNotificationScript implements EveryFrameScript
             // Open the mod forum thread in the user's default browser
             try
             {
-                final String url = mod.getUpdateURL();
+                final String url = mod.updateURL;
                 if (url != null)
                 {
-                    text.addParagraph("Opening " + mod.getName() + " forum thread...");
+                    text.addParagraph("Opening " + mod.name + " forum thread...");
                     options.setEnabled(mod, false);
                     Desktop.getDesktop().browse(URI.create(url));
                 }
@@ -611,9 +716,9 @@ final class UpdateNotificationScript implements EveryFrameScript
                 goToMenu((Menu) optionData);
             }
             // Option was version data? Launch that mod's forum thread
-            else if (optionData instanceof VersionFile)
+            else if (optionData instanceof Entry)
             {
-                openModThread((VersionFile) optionData);
+                openModThread((Entry) optionData);
             }
         }
 
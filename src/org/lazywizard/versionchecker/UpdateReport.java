@@ -0,0 +1,325 @@
+package org.lazywizard.versionchecker;
+
+import com.fs.starfarer.api.ModSpecAPI;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.lazywizard.versionchecker.UpdateInfo.ModInfo;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Everything the update notification shows, built once on the update check's
+// thread so summoning the dialog on the game thread only has to render it.
+// Lists are sorted by mod name, update URLs resolved and lines pre-wrapped.
+// Immutable, so the same report can be shown any number of times.
+// The most recent report is saved to saves/common so it can be shown at the
+// next launch while that session's update check is still running
+final class UpdateReport
+{
+    private static final String REPORT_FILE = "lw_version_checker_last_report.json";
+    private static final int LINE_LENGTH = 45;
+    final List<Entry> hasUpdate, hasNoUpdate, failed, unsupported;
+    // Paths of local version files that couldn't be loaded, so weren't checked
+    final List<String> invalidFiles;
+    final String ssUpdate, ssUpdateError;
+    final long created;
+
+    UpdateReport(UpdateInfo results, List<ModSpecAPI> unsupportedMods,
+                 List<String> invalidFiles)
+    {
+        this.invalidFiles = Collections.unmodifiableList(new ArrayList<>(invalidFiles));
+        final UpdateInfo.Snapshot snapshot = results.getSnapshot();
+        hasUpdate = createEntries(snapshot.hasUpdate, false);
+        hasNoUpdate = createEntries(snapshot.hasNoUpdate, false);
+        failed = createEntries(snapshot.failed, true);
+        ssUpdate = snapshot.ssUpdate;
+        ssUpdateError = snapshot.ssUpdateError;
+        created = System.currentTimeMillis();
+
+        // Sorted copy, the caller's list is left alone
+        final List<ModSpecAPI> sorted = new ArrayList<>(unsupportedMods);
+        Collections.sort(sorted, new Comparator<ModSpecAPI>()
+        {
+            @Override
+            public int compare(ModSpecAPI o1, ModSpecAPI o2)
+            {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+
+        final List<Entry> unsupported = new ArrayList<>(sorted.size());
+        for (ModSpecAPI mod : sorted)
+        {
+            unsupported.add(new Entry(mod.getName(), mod.getVersion(), null, null, false));
+        }
+
+        this.unsupported = Collections.unmodifiableList(unsupported);
+    }
+
+    private UpdateReport(JSONObject json) throws JSONException
+    {
+        hasUpdate = readEntries(json.getJSONArray("hasUpdate"));
+        hasNoUpdate = readEntries(json.getJSONArray("hasNoUpdate"));
+        failed = readEntries(json.getJSONArray("failed"));
+        unsupported = readEntries(json.getJSONArray("unsupported"));
+        final List<String> invalidFiles = new ArrayList<>();
+        final JSONArray invalid = json.optJSONArray("invalidFiles");
+        if (invalid != null)
+        {
+            for (int x = 0; x < invalid.length(); x++)
+            {
+                invalidFiles.add(invalid.getString(x));
+            }
+        }
+        this.invalidFiles = Collections.unmodifiableList(invalidFiles);
+        ssUpdate = json.optString("ssUpdate", null);
+        ssUpdateError = json.optString("ssUpdateError", null);
+        created = json.getLong("created");
+    }
+
+    private static List<Entry> createEntries(List<ModInfo> results, boolean showError)
+    {
+        final List<ModInfo> mods = new ArrayList<>(results);
+        Collections.sort(mods);
+        final List<Entry> entries = new ArrayList<>(mods.size());
+        for (ModInfo mod : mods)
+        {
+            entries.add(new Entry(mod.getName(), mod.getVersionString(),
+                    (showError ? mod.getErrorMessage() : null),
+                    mod.getLocalVersion().getUpdateURL(),
+                    !mod.failedUpdateCheck() && mod.isLocalNewer()));
+        }
+
+        return Collections.unmodifiableList(entries);
+    }
+
+    private static List<Entry> readEntries(JSONArray json) throws JSONException
+    {
+        final List<Entry> entries = new ArrayList<>(json.length());
+        for (int x = 0; x < json.length(); x++)
+        {
+            final JSONObject entry = json.getJSONObject(x);
+            entries.add(new Entry(entry.getString("name"), entry.getString("version"),
+                    entry.optString("error", null), entry.optString("updateURL", null),
+                    entry.optBoolean("isLocalNewer", false)));
+        }
+
+        return Collections.unmodifiableList(entries);
+    }
+
+    private static JSONArray writeEntries(List<Entry> entries) throws JSONException
+    {
+        final JSONArray json = new JSONArray();
+        for (Entry entry : entries)
+        {
+            final JSONObject tmp = new JSONObject();
+            tmp.put("name", entry.name);
+            tmp.put("version", entry.version);
+            tmp.put("error", entry.error);
+            tmp.put("updateURL", entry.updateURL);
+            tmp.put("isLocalNewer", entry.isLocalNewer);
+            json.put(tmp);
+        }
+
+        return json;
+    }
+
+    // Returns null if no report was saved or it couldn't be read
+    static UpdateReport loadLast()
+    {
+        final String raw = CommonFiles.read(REPORT_FILE);
+        if (raw == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return new UpdateReport(new JSONObject(raw));
+        }
+        catch (JSONException ex)
+        {
+            Log.warn("Failed to load the last update report", ex);
+            return null;
+        }
+    }
+
+    void save()
+    {
+        try
+        {
+            final JSONObject json = new JSONObject();
+            json.put("created", created);
+            json.put("ssUpdate", ssUpdate);
+            json.put("ssUpdateError", ssUpdateError);
+            json.put("hasUpdate", writeEntries(hasUpdate));
+            json.put("hasNoUpdate", writeEntries(hasNoUpdate));
+            json.put("failed", writeEntries(failed));
+            json.put("unsupported", writeEntries(unsupported));
+            json.put("invalidFiles", new JSONArray(invalidFiles));
+            CommonFiles.write(REPORT_FILE, json.toString(2));
+        }
+        catch (JSONException ex)
+        {
+            Log.warn("Failed to save the update report", ex);
+        }
+    }
+
+    // Ex: "3 hours ago"
+    String getAge()
+    {
+        final long minutes = TimeUnit.MILLISECONDS.toMinutes(
+                Math.max(0, System.currentTimeMillis() - created));
+        if (minutes < 1)
+        {
+            return "less than a minute ago";
+        }
+        if (minutes < 60)
+        {
+            return minutes + (minutes == 1 ? " minute ago" : " minutes ago");
+        }
+
+        final long hours = minutes / 60;
+        if (hours < 24)
+        {
+            return hours + (hours == 1 ? " hour ago" : " hours ago");
+        }
+
+        final long days = hours / 24;
+        return days + (days == 1 ? " day ago" : " days ago");
+    }
+
+    // Taken from LazyLib's StringUtils, still up-to-date as of LazyLib v2.1
+    static String wrap(String toWrap)
+    {
+        if (toWrap == null || LINE_LENGTH <= 1)
+        {
+            return "";
+        }
+
+        // Analyse each line of the message seperately
+        String[] lines = toWrap.split("\n");
+        // StringBuilder doesn't auto-resize down, so setting the length here
+        // is an optimization even though length is reset to 0 each line
+        StringBuilder line = new StringBuilder(LINE_LENGTH);
+        StringBuilder message = new StringBuilder((int) (toWrap.length() * 1.1f));
+        for (String rawLine : lines)
+        {
+            // Check if the string even needs to be broken up
+            if (rawLine.length() <= LINE_LENGTH)
+            {
+                // Entire message fits into a single line
+                message.append(rawLine).append("\n");
+            }
+            else
+            {
+                // Clear the StringBuilder so we can generate a new line
+                line.setLength(0);
+                // Split the line up into the individual words, and append each
+                // word to the next line until the character limit is reached
+                String[] words = rawLine.split(" ");
+                for (int y = 0; y < words.length; y++)
+                {
+                    // If this word by itself is longer than the line limit,
+                    // break it up into multiple sub-lines separated by a dash
+                    if (words[y].length() >= LINE_LENGTH)
+                    {
+                        // Make sure to post the previous line in queue, if any
+                        if (line.length() > 0)
+                        {
+                            message.append(line.toString()).append("\n");
+                            line.setLength(0);
+                        }
+
+                        // Break up word into multiple lines separated with dash
+                        while (words[y].length() > LINE_LENGTH)
+                        {
+                            message.append(words[y].substring(0, LINE_LENGTH - 1))
+                                    .append("-\n");
+                            words[y] = words[y].substring(LINE_LENGTH - 1);
+                        }
+
+                        // Add any remaining text to the next line
+                        if (!words[y].isEmpty())
+                        {
+                            // If we have reached the end of the message, ensure
+                            // that we post the remaining part of the queue
+                            if (y == (words.length - 1))
+                            {
+                                message.append(words[y]).append("\n");
+                            }
+                            else
+                            {
+                                line.append(words[y]);
+                            }
+                        }
+                    }
+                    // If this word would put us over the length limit, post
+                    // the queue and back up a step (re-check this word with
+                    // a blank line - this is in case it trips the above block)
+                    else if (words[y].length() + line.length() >= LINE_LENGTH)
+                    {
+                        message.append(line.toString()).append("\n");
+                        line.setLength(0);
+                        y--;
+                    }
+                    // This word won't put us over the limit, add it to the queue
+                    else
+                    {
+                        line.append(words[y]);
+                        line.append(" ");
+
+                        // If we have reached the end of the message, ensure
+                        // that we post the remaining part of the queue
+                        if (y == (words.length - 1))
+                        {
+                            message.append(line.toString()).append("\n");
+                        }
+                    }
+                }
+            }
+        }
+
+        // Don't end with a newline if the original string didn't do so
+        if (!toWrap.endsWith("\n"))
+        {
+            message.deleteCharAt(message.length() - 1);
+        }
+
+        return message.toString();
+    }
+
+    // Returns null if the mod isn't in that list
+    static Entry find(List<Entry> entries, String name)
+    {
+        for (Entry entry : entries)
+        {
+            if (entry.name.equals(name))
+            {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    // Also used as the dialog option for opening the mod's update page
+    static final class Entry
+    {
+        final String name, version, error, line, updateURL;
+        final boolean isLocalNewer;
+
+        private Entry(String name, String version, String error,
+                      String updateURL, boolean isLocalNewer)
+        {
+            this.name = name;
+            this.version = version;
+            this.error = error;
+            this.line = wrap(" - " + name
+                    + " (" + version + (error != null ? ", " + error : "") + ")");
+            this.updateURL = updateURL;
+            this.isLocalNewer = isLocalNewer;
+        }
+    }
+}
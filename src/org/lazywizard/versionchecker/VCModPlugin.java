@@ -5,91 +5,203 @@ import com.fs.starfarer.api.Global;
 import com.fs.starfarer.api.ModSpecAPI;
 import org.apache.log4j.Level;
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
+import org.lazywizard.versionchecker.UpdateInfo.ModInfo;
 import org.lazywizard.versionchecker.UpdateInfo.VersionFile;
 
-import java.io.IOException;
-import java.net.URLConnection;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class VCModPlugin extends BaseModPlugin
 {
     private static final String SETTINGS_FILE = "data/config/version/version_checker.json";
     private static final String CSV_PATH = "data/config/version/version_files.csv";
     private static UpdateNotificationScript script = null;
-    static boolean checkSSVersion = false, preferNexus = false;
-    static int notificationKey;
+    // Results of suppressVCUnsupported lookups, reused by RecheckVersions
+    private static final Map<String, Boolean> ignoredMods = new ConcurrentHashMap<>();
+    // Written by the update check's thread, read by the game thread
+    static volatile boolean checkSSVersion = false, preferNexus = false;
+    // Read during onApplicationLoad, the last report can be shown before
+    // the update check has loaded any of the other settings
+    static volatile int notificationKey;
 
     private static boolean isIgnored(ModSpecAPI mod)
     {
+        // The API doesn't expose file modification times, but the game only
+        // reads mod_info.json at launch, and any update to a mod will change
+        // its version (and usually its path)
+        final String key = mod.getPath() + "|" + mod.getVersion();
+        final Boolean cached = ignoredMods.get(key);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        boolean isIgnored;
         try
         {
             final JSONObject modInfo = Global.getSettings().loadJSON("mod_info.json", mod.getId());
-            return modInfo.optBoolean("suppressVCUnsupported", false);
+            isIgnored = modInfo.optBoolean("suppressVCUnsupported", false);
         }
         catch (Exception ex)
         {
             Log.error("Failed to load mod_info.json for mod " + mod.getId(), ex);
-            return false;
+            isIgnored = false;
         }
+
+        ignoredMods.put(key, isIgnored);
+        return isIgnored;
     }
 
-    // Note: if there's any significant change to how this function works,
-    // the RecheckVersions console command will need to be updated as well
-    @Override
-    public void onApplicationLoad() throws Exception
+    // Returns null if the file couldn't be loaded, one broken mod shouldn't
+    // stop every other mod from being checked
+    private static VersionFile loadVersionFile(String versionFile)
+    {
+        try
+        {
+            return new VersionFile(Global.getSettings().loadJSON(versionFile), false);
+        }
+        catch (Exception ex)
+        {
+            Log.error("Failed to parse version file \"" + versionFile + "\"", ex);
+            return null;
+        }
+    }
+
+    // Loads and parses every local version file in parallel, in CSV order.
+    // The paths of any that couldn't be loaded are added to invalidFiles
+    private static List<VersionFile> loadVersionFiles(final List<String> versionFilePaths,
+                                                      List<String> invalidFiles)
+            throws Exception
     {
-        // Disable URL caching - fixes an issue with re-uploaded BitBucket files
-        new URLConnection(null)
+        final int numThreads = Math.min(versionFilePaths.size(),
+                Runtime.getRuntime().availableProcessors());
+        if (numThreads <= 1)
+        {
+            final List<VersionFile> versionFiles = new ArrayList<>(versionFilePaths.size());
+            for (String versionFile : versionFilePaths)
+            {
+                final VersionFile loaded = loadVersionFile(versionFile);
+                if (loaded != null)
+                {
+                    versionFiles.add(loaded);
+                }
+                else
+                {
+                    invalidFiles.add(versionFile);
+                }
+            }
+
+            return versionFiles;
+        }
+
+        // At most one loader per core: this thread plus numThreads - 1 helpers
+        // from the shared executor, all taking the next unclaimed file
+        final VersionFile[] loaded = new VersionFile[versionFilePaths.size()];
+        final AtomicInteger nextFile = new AtomicInteger(0);
+        final Runnable loader = new Runnable()
         {
             @Override
-            public void connect() throws IOException
+            public void run()
             {
+                int x;
+                while ((x = nextFile.getAndIncrement()) < loaded.length)
+                {
+                    loaded[x] = loadVersionFile(versionFilePaths.get(x));
+                }
             }
-        }.setDefaultUseCaches(false);
+        };
 
-        // Enable TLS v1.2 (required to use Bitbucket past December 1st, 2018)
-        System.setProperty("https.protocols", "SSLv3,TLSv1,TLSv1.1,TLSv1.2");
-        // TODO: Enable TLS v1.3 (required to use Bitbucket past August 24, 2020)
-        //System.setProperty("https.cipherSuites", System.getProperty("https.cipherSuites") + ",");
+        final TaskGroup loaders = new TaskGroup(VersionChecker.getExecutor());
+        try
+        {
+            final List<Future<?>> helpers = new ArrayList<>(numThreads - 1);
+            for (int x = 1; x < numThreads; x++)
+            {
+                helpers.add(loaders.submit(Executors.callable(loader)));
+            }
+
+            loader.run();
+            for (Future<?> helper : helpers)
+            {
+                try
+                {
+                    helper.get();
+                }
+                catch (ExecutionException ex)
+                {
+                    final Throwable cause = ex.getCause();
+                    throw (cause instanceof Exception ? (Exception) cause : ex);
+                }
+            }
+
+            // Future.get() makes every helper's writes to loaded visible here
+            final List<VersionFile> versionFiles = new ArrayList<>(loaded.length);
+            for (int x = 0; x < loaded.length; x++)
+            {
+                if (loaded[x] != null)
+                {
+                    versionFiles.add(loaded[x]);
+                }
+                else
+                {
+                    invalidFiles.add(versionFilePaths.get(x));
+                }
+            }
+
+            return versionFiles;
+        }
+        finally
+        {
+            loaders.cancel();
+        }
+    }
 
+    // Runs on the shared update check executor, returns null if no mods have version info
+    private static UpdateReport runUpdateCheck(Queue<ModInfo> completed) throws Exception
+    {
         final JSONObject settings = Global.getSettings().loadJSON(SETTINGS_FILE);
-        notificationKey = settings.getInt("summonUpdateNotificationKey");
         checkSSVersion = settings.getBoolean("checkStarsectorVersion");
         preferNexus = settings.getBoolean("preferNexusLinks");
+        VersionChecker.setAllowLocalFiles(Global.getSettings().isDevMode());
         VersionChecker.setMaxThreads(settings.getInt("maxUpdateThreads"));
+        VersionChecker.setFetchEngine(settings.getString("fetchEngine"));
+        VersionChecker.setConcurrentDownloads(settings.getInt("minConcurrentDownloads"),
+                settings.getInt("maxConcurrentDownloads"));
+        VersionChecker.setMaxThreadsPerHost(settings.getInt("maxConnectionsPerHost"));
+        VersionChecker.setCacheTTL(settings.getInt("cacheTtlMinutes"));
+        VersionChecker.setTimeouts(settings.getInt("connectTimeoutSeconds"),
+                settings.getInt("readTimeoutSeconds"), settings.getInt("updateCheckTimeoutSeconds"));
+        VersionChecker.setRetries(settings.getInt("maxRetries"),
+                settings.getInt("retryDelayMillis"), settings.getInt("maxHostFailures"));
+        VersionChecker.setMaxFileSize(settings.getInt("maxFileSizeKB"));
         Log.setLevel(Level.toLevel(settings.getString("logLevel"), Level.WARN));
 
-        final List<VersionFile> versionFiles = new ArrayList<>();
         final JSONArray csv = Global.getSettings().getMergedSpreadsheetDataForMod(
                 "version file", CSV_PATH, "lw_version_checker");
 
         final int numMods = csv.length(),
                 csvPathLength = CSV_PATH.length() + 1;
-        final List<String> modPaths = new ArrayList<>(numMods);
+        final Set<String> modPaths = new HashSet<>(numMods * 2);
+        final List<String> versionFilePaths = new ArrayList<>(numMods);
         Log.info("Found " + numMods + " mods with version info");
         for (int x = 0; x < numMods; x++)
         {
             final JSONObject row = csv.getJSONObject(x);
-            final String versionFile = row.getString("version file");
+            versionFilePaths.add(row.getString("version file"));
             final String source = row.optString("fs_rowSource", null);
             if (source != null && source.length() > csvPathLength)
             {
                 modPaths.add(source.substring(0, source.length() - csvPathLength));
             }
+        }
 
-            try
-            {
-                versionFiles.add(new VersionFile(
-                        Global.getSettings().loadJSON(versionFile), false));
-            }
-            catch (JSONException ex)
-            {
-                throw new RuntimeException("Failed to parse version file \""
-                        + versionFile + "\"", ex);
-            }
+        final List<String> invalidFiles = new ArrayList<>();
+        final List<VersionFile> versionFiles = loadVersionFiles(versionFilePaths, invalidFiles);
+        if (versionFiles.isEmpty() && invalidFiles.isEmpty())
+        {
+            return null;
         }
 
         final List<ModSpecAPI> unsupportedMods = new ArrayList<>();
@@ -101,11 +213,49 @@ public final class VCModPlugin extends BaseModPlugin
             }
         }
 
-        if (!versionFiles.isEmpty())
-        {
-            script = new UpdateNotificationScript(unsupportedMods,
-                    VersionChecker.scheduleUpdateCheck(versionFiles));
-        }
+        // Saved so it can be shown straight away next launch
+        final UpdateReport report = new UpdateReport(
+                VersionChecker.checkForUpdates(versionFiles, completed), unsupportedMods,
+                invalidFiles);
+        report.save();
+        return report;
+    }
+
+    // Note: if there's any significant change to how this function works,
+    // the RecheckVersions console command will need to be updated as well
+    @Override
+    public void onApplicationLoad() throws Exception
+    {
+        // Enable TLS v1.2 (required to use Bitbucket past December 1st, 2018)
+        System.setProperty("https.protocols", "SSLv3,TLSv1,TLSv1.1,TLSv1.2");
+        // TODO: Enable TLS v1.3 (required to use Bitbucket past August 24, 2020)
+        //System.setProperty("https.cipherSuites", System.getProperty("https.cipherSuites") + ",");
+
+        notificationKey = Global.getSettings().loadJSON(SETTINGS_FILE)
+                .getInt("summonUpdateNotificationKey");
+
+        // Everything else, including the other settings and finding version
+        // files, happens in the background so it doesn't slow down loading.
+        // The last report is loaded separately so it can be shown right away
+        final Queue<ModInfo> completed = new ConcurrentLinkedQueue<>();
+        final Future<UpdateReport> lastReport = VersionChecker.getExecutor().submit(
+                new Callable<UpdateReport>()
+                {
+                    @Override
+                    public UpdateReport call()
+                    {
+                        return UpdateReport.loadLast();
+                    }
+                });
+        script = new UpdateNotificationScript(VersionChecker.scheduleUpdateCheck(
+                new Callable<UpdateReport>()
+                {
+                    @Override
+                    public UpdateReport call() throws Exception
+                    {
+                        return runUpdateCheck(completed);
+                    }
+                }), lastReport, completed);
     }
 
     @Override
@@ -7,383 +7,843 @@ import org.lazywizard.versionchecker.UpdateInfo.ModInfo;
 import org.lazywizard.versionchecker.UpdateInfo.VersionFile;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.SocketTimeoutException;
 import java.text.DecimalFormat;
-import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 final class VersionChecker
 {
     private static final String VANILLA_UPDATE_URL
             = "https://raw.githubusercontent.com/LazyWizard/version-checker/master/vanilla.txt";
-    private static int MAX_THREADS = 12;
+    private static int MAX_THREADS = 12, MAX_THREADS_PER_HOST = 4;
+    private static long CACHE_TTL = 0;
+    private static boolean ALLOW_LOCAL_FILES = false;
+    private static int CONNECT_TIMEOUT = 10_000, READ_TIMEOUT = 20_000;
+    private static long CHECK_TIMEOUT = 60_000;
+    private static int MAX_RETRIES = 2, RETRY_DELAY = 500, MAX_HOST_FAILURES = 3;
+    private static String FETCH_ENGINE = "threaded";
+    private static int MIN_DOWNLOADS = 2, MAX_DOWNLOADS = 16;
+    private static int MAX_FILE_SIZE = 1024 * 1024;
+    private static final long IDLE_THREAD_TIMEOUT = 30;
+    private static ScheduledThreadPoolExecutor EXECUTOR = null;
+    private static Future<?> CURRENT_CHECK = null;
 
     static void setMaxThreads(int maxThreads)
     {
         MAX_THREADS = maxThreads;
     }
 
-    private static JSONObject sanitizeJSON(final String rawJSON) throws JSONException
+    static void setMaxThreadsPerHost(int maxThreadsPerHost)
     {
-        StringBuilder result = new StringBuilder(rawJSON.length());
+        MAX_THREADS_PER_HOST = maxThreadsPerHost;
+    }
+
+    static void setTimeouts(int connectSeconds, int readSeconds, int checkSeconds)
+    {
+        CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(Math.max(0, connectSeconds));
+        READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(Math.max(0, readSeconds));
+        CHECK_TIMEOUT = TimeUnit.SECONDS.toMillis(Math.max(0, checkSeconds));
+    }
+
+    static void setRetries(int maxRetries, int retryDelayMillis, int maxHostFailures)
+    {
+        MAX_RETRIES = Math.max(0, maxRetries);
+        RETRY_DELAY = Math.max(0, retryDelayMillis);
+        MAX_HOST_FAILURES = Math.max(0, maxHostFailures);
+    }
+
+    // 0 means no limit
+    static void setMaxFileSize(int kilobytes)
+    {
+        MAX_FILE_SIZE = (int) Math.min(Integer.MAX_VALUE, Math.max(0, kilobytes) * 1024L);
+    }
 
-        // Remove elements that the default JSON implementation can't parse
-        for (final String str : rawJSON.split("\n"))
+    // The number of downloads at once adapts between these two values
+    static void setConcurrentDownloads(int minDownloads, int maxDownloads)
+    {
+        MIN_DOWNLOADS = Math.max(1, minDownloads);
+        MAX_DOWNLOADS = Math.max(MIN_DOWNLOADS, maxDownloads);
+    }
+
+    // Either "threaded" (one blocking request per thread) or "nio" (every request
+    // runs at once on a single thread)
+    static void setFetchEngine(String engine)
+    {
+        FETCH_ENGINE = engine;
+    }
+
+    // Local files are only allowed in dev mode
+    static void setAllowLocalFiles(boolean allowLocalFiles)
+    {
+        ALLOW_LOCAL_FILES = allowLocalFiles;
+    }
+
+    static void setCacheTTL(int minutes)
+    {
+        CACHE_TTL = TimeUnit.MINUTES.toMillis(Math.max(0, minutes));
+    }
+
+    private static String getResultKey(VersionFile localVersion)
+    {
+        final String id = localVersion.getMasterId();
+        return localVersion.getMasterURL() + (id == null ? "" : "#" + id)
+                + "|" + localVersion.getVersion();
+    }
+
+    private static ModInfo createModInfo(final VersionFile localVersion,
+                                         final Object remoteVersion,
+                                         final RemoteFileCache cache)
+    {
+        // Return null master and register error if downloading/parsing the master file failed
+        if (remoteVersion instanceof String)
         {
-            // Strip out whole-line comments
-            if (str.trim().startsWith("#"))
-            {
-                continue;
-            }
+            return new ModInfo(localVersion, (String) remoteVersion);
+        }
 
-            // Strip out end-line comments
-            if (str.contains("#"))
+        // Remember the result so we can skip this check entirely for a while
+        if (CACHE_TTL > 0)
+        {
+            try
             {
-                result.append(str.substring(0, str.indexOf('#')));
+                cache.putResult(getResultKey(localVersion),
+                        ((VersionFile) remoteVersion).toJSON().toString());
             }
-            else
+            catch (JSONException ex)
             {
-                result.append(str);
+                Log.warn("Failed to cache update check result for " + localVersion.getName(), ex);
             }
         }
 
-        return new JSONObject(result.toString());
+        // Return a container for version files that lets us compare the two
+        return new ModInfo(localVersion, (VersionFile) remoteVersion);
     }
 
-    private static Object getRemoteVersionFile(final String versionFileURL)
+    // Returns null if there is no fresh cached result for this mod
+    private static ModInfo getCachedResult(final VersionFile localVersion,
+                                           final RemoteFileCache cache)
     {
-        // No valid master version URL entry was found in the .version file
-        if (versionFileURL == null)
+        if (CACHE_TTL <= 0 || localVersion.getMasterURL() == null)
         {
-            return "no update URL was found in .version file";
+            return null;
         }
 
-        // Don't allow local files outside of dev mode
-        if (!Global.getSettings().isDevMode()
-                && versionFileURL.trim().toLowerCase().startsWith("file:"))
+        final String cached = cache.getResult(getResultKey(localVersion), CACHE_TTL);
+        if (cached == null)
         {
-            Log.error("Local URLs are not allowed unless devmode is enabled: \""
-                    + versionFileURL + "\"");
-            return "local URLs are not allowed unless devmode is enabled: \""
-                    + versionFileURL + "\"";
+            return null;
         }
 
-        Log.info("Loading version info from remote URL " + versionFileURL);
-
-        // Load JSON from external URL and parse version info from it
-        try (InputStream stream = new URL(versionFileURL).openStream();
-             Scanner scanner = new Scanner(stream, "UTF-8").useDelimiter("\\A"))
+        // Not downloaded this time, but will be once the result expires
+        cache.keep(localVersion.getMasterURL());
+        try
         {
-            return new VersionFile(sanitizeJSON(scanner.next()), true);
-        }
-        catch (MalformedURLException ex)
-        {
-            Log.error("Invalid master version file URL \"" + versionFileURL + "\"", ex);
-            return "invalid master version file URL \"" + versionFileURL + "\"";
-        }
-        catch (IOException ex)
-        {
-            Log.error("Failed to load master version file from URL \"" + versionFileURL + "\"", ex);
-            return "failed to load master version file from URL \"" + versionFileURL + "\"";
+            return new ModInfo(localVersion, new VersionFile(new JSONObject(cached), true));
         }
         catch (JSONException ex)
         {
-            Log.error("Malformed JSON in remote version file at URL \"" + versionFileURL + "\"", ex);
-            return "malformed JSON in remote version file at URL \"" + versionFileURL + "\"";
+            Log.warn("Discarding corrupt cached result for " + localVersion.getName(), ex);
+            return null;
         }
     }
 
-    private static String getLatestSSVersion() throws IOException, NoSuchElementException
+    static boolean isRemoteNewer(String localVersion, String remoteVersion)
     {
-        Log.info("Loading starsector update info from remote URL " + VANILLA_UPDATE_URL);
-
-        // Get latest Starsector version from remote URL
-        try (InputStream stream = new URL(VANILLA_UPDATE_URL).openStream();
-             Scanner scanner = new Scanner(stream, "UTF-8").useDelimiter("\\A"))
+        // Sanity check
+        if (localVersion == null || remoteVersion == null)
         {
-            return scanner.next();
+            return false;
         }
-        // This should never happen as the URL is hardcoded
-        catch (MalformedURLException ex)
+
+        return GameVersion.parse(remoteVersion).isNewerThan(GameVersion.parse(localVersion));
+    }
+
+    // Each mod's result is also offered to completed as soon as it's known
+    static UpdateInfo checkForUpdates(final List<VersionFile> localVersions,
+                                      final Queue<ModInfo> completed)
+            throws InterruptedException
+    {
+        return new MainTask(localVersions, completed).call();
+    }
+
+    static Future<UpdateInfo> scheduleUpdateCheck(final List<VersionFile> localVersions,
+                                                  final Queue<ModInfo> completed)
+    {
+        return scheduleUpdateCheck(new MainTask(localVersions, completed));
+    }
+
+    // Only one update check runs at a time, starting another cancels and
+    // interrupts whatever is still in progress
+    static synchronized <T> Future<T> scheduleUpdateCheck(final Callable<T> updateCheck)
+    {
+        if (CURRENT_CHECK != null && !CURRENT_CHECK.isDone())
         {
-            throw new RuntimeException("Invalid vanilla update URL \"" + VANILLA_UPDATE_URL + "\"", ex);
+            Log.info("Cancelling update check still in progress");
+            CURRENT_CHECK.cancel(true);
         }
+
+        final Future<T> check = getExecutor().submit(updateCheck);
+        CURRENT_CHECK = check;
+        return check;
     }
 
-    private static ModInfo checkForUpdate(final VersionFile localVersion)
+    // Shared by every update check. Threads are only started when needed and
+    // exit once they've been idle for a while, so nothing lingers between checks
+    static synchronized ScheduledExecutorService getExecutor()
     {
-        // Download the master version file for this mod
-        final Object remoteVersion = getRemoteVersionFile(localVersion.getMasterURL());
-
-        // Return null master and register error if downloading/parsing the master file failed
-        if (remoteVersion instanceof String)
+        if (EXECUTOR == null)
         {
-            return new ModInfo(localVersion, (String) remoteVersion);
+            EXECUTOR = new ScheduledThreadPoolExecutor(1, new VCThreadFactory());
+            EXECUTOR.setKeepAliveTime(IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS);
+            EXECUTOR.allowCoreThreadTimeOut(true);
+            EXECUTOR.setRemoveOnCancelPolicy(true);
         }
 
-        // Return a container for version files that lets us compare the two
-        return new ModInfo(localVersion, (VersionFile) remoteVersion);
+        // The check itself and the NIO selector loop each need a thread on top of the downloads
+        EXECUTOR.setCorePoolSize(Math.max(1, MAX_THREADS) + 2);
+        return EXECUTOR;
     }
 
-    static Future<UpdateInfo> scheduleUpdateCheck(final List<VersionFile> localVersions)
+    private static FetchEngine createEngine(int numThreads, TaskGroup tasks)
     {
-        // Start another thread to handle the update checks and wait on the results
-        FutureTask<UpdateInfo> task = new FutureTask<>(new MainTask(localVersions));
-        Thread thread = new Thread(task, "Thread-VC-Main");
-        thread.setDaemon(true);
-        thread.start();
-        return task;
+        if ("nio".equalsIgnoreCase(FETCH_ENGINE))
+        {
+            try
+            {
+                return new NioFetchEngine(tasks, CONNECT_TIMEOUT, READ_TIMEOUT, MAX_FILE_SIZE);
+            }
+            catch (IOException ex)
+            {
+                Log.warn("Failed to start NIO fetch engine, falling back to threaded engine", ex);
+            }
+        }
+
+        return new ThreadedFetchEngine(tasks, numThreads, CONNECT_TIMEOUT,
+                READ_TIMEOUT, MAX_FILE_SIZE);
     }
 
-    private static final class MainTask implements Callable<UpdateInfo>
+    // A single download within an update check. Its results are published
+    // straight into MainTask's collector by whichever thread finished it, and
+    // MainTask is only told that it's done
+    private abstract static class Check implements FetchEngine.Callback
     {
-        private final List<VersionFile> localVersions;
+        final String url;
+        final RemoteFileCache cache;
+        private final MainTask task;
+        private final AtomicBoolean isReported = new AtomicBoolean(false);
+        RemoteFileCache.Entry cached;
+        FetchMetrics.Request metrics;
+
+        Check(String url, RemoteFileCache cache, MainTask task)
+        {
+            this.url = url;
+            this.cache = cache;
+            this.task = task;
+        }
 
-        private MainTask(final List<VersionFile> localVersions)
+        // fetcher is null if no check needed to download anything
+        abstract void start(HttpFetcher fetcher, FetchMetrics allMetrics);
+
+        // False if start() can finish from the cache without a fetcher
+        boolean needsDownload()
         {
-            this.localVersions = localVersions;
+            return true;
         }
 
-        private int getNumberOfThreads()
+        abstract void addResults(MainTask task, UpdateInfo results);
+
+        // Called instead of addResults if the check missed the overall deadline
+        void addTimedOut(MainTask task, UpdateInfo results, String reason)
         {
-            return Math.max(1, Math.min(MAX_THREADS, localVersions.size()));
+            // Make sure this is among the first started next time
+            cache.putLatency(url, CHECK_TIMEOUT);
         }
 
-        private CompletionService<ModInfo> createCompletionService()
+        // Also remembers how long the download took, for ordering future checks.
+        // Time spent queued depends on everything else in the check, so it's left out
+        void finishRequest(String outcome)
         {
-            // Create thread pool and executor
-            ExecutorService serviceInternal = Executors.newFixedThreadPool(
-                    getNumberOfThreads(), new VCThreadFactory());
-            CompletionService<ModInfo> service = new ExecutorCompletionService<>(serviceInternal);
+            metrics.finish(outcome);
+            cache.putLatency(url, Math.max(0, metrics.total - metrics.queueWait));
+        }
 
-            // Register update checks with thread executor
-            for (final VersionFile version : localVersions)
+        // Only the first of finishing and timing out gets to add results
+        void finish()
+        {
+            if (isReported.compareAndSet(false, true))
             {
-                service.submit(new SubTask(version));
+                addResults(task, task.results);
             }
 
-            return service;
+            task.finished.add(this);
         }
 
-        public static void main(String[] args)
+        // Returns false if the check finished first, in which case its
+        // results are being added right now
+        boolean timeOut(String reason)
         {
-            final String[] allVersions = new String[]
-                    {
-                            "Starsector 0.35a-pre-RC2",
-                            "Starsector 0.5a-pre-RC3",
-                            "Starsector 0.51a-RC1",
-                            "Starsector 0.51a-RC3",
-                            "Starsector 0.52a-RC2",
-                            "Starsector 0.52.1a-RC4",
-                            "Starsector 0.53a-RC4",
-                            "Starsector 0.53.1a-RC5",
-                            "Starsector 0.54a-RC5",
-                            "Starsector 0.54.1a-RC2",
-                            "Starsector 0.6a-RC1",
-                            "Starsector 0.6a-RC4",
-                            "Starsector 0.6.1a-RC2",
-                            "Starsector 0.6.2a-RC2",
-                            "Starsector 0.6.2a-RC3",
-                            "Starsector 0.65a-RC1",
-                            "Starsector 0.65.1a-RC1",
-                            "Starsector 0.65.2a-RC1",
-                            "Starsector 0.7a-RC7",
-                            "Starsector 0.7a-RC10",
-                            "Starsector 0.7.1a-RC3",
-                            "Starsector 0.7.1a-RC4",
-                            "Starsector 0.7.1a-RC5",
-                            "Starsector 0.7.2a-RC1",
-                            "Starsector 0.7.2a-RC2",
-                            "Starsector 0.7.2a-RC3",
-                            "Starsector 0.8a-RC17",
-                            "Starsector 0.8a-RC18",
-                            "Starsector 0.8a-RC19",
-                            "Starsector 0.8.1a-RC5",
-                            "Starsector 0.8.1a-RC6",
-                            "Starsector 0.9a-RC6",
-                            "Starsector 0.9a-RC7",
-                            "Starsector 0.9a-RC8",
-                            "Starsector 0.9a-RC9",
-                            "Starsector 0.9a-RC10",
-
-                    };
-
-            // Proper order, all should be true
-            System.out.println(" Proper order\n--------------");
-            for (int x = 0; x < allVersions.length - 1; x++)
-            {
-                String vOld = allVersions[x], vNew = allVersions[x + 1];
-                System.out.printf("%-55s %5s\n", vOld + " vs " + vNew + ": ",
-                        isRemoteNewer(vOld, vNew));
-            }
-
-            // Reverse order, all should be false
-            System.out.println("\n Reverse order\n---------------");
-            for (int x = allVersions.length - 1; x > 0; x--)
-            {
-                String vOld = allVersions[x], vNew = allVersions[x - 1];
-                System.out.printf("%-55s %5s\n", vOld + " vs " + vNew + ": ",
-                        isRemoteNewer(vOld, vNew));
-            }
-        }
-
-        private static boolean isRemoteNewer(String localVersion, String remoteVersion)
-        {
-            // Sanity check
-            if (localVersion == null || remoteVersion == null)
+            if (!isReported.compareAndSet(false, true))
             {
                 return false;
             }
 
-            // Remove all non-version data from the version information,
-            // then split the version number and release candidate number
-            // (ex: "Starsector 0.65.2a-RC1" becomes {"0.65.2","1"})
-            final String[] localRaw = localVersion.replaceAll("[^0-9.-]", "").split("-", 2),
-                    remoteRaw = remoteVersion.replaceAll("[^0-9.-]", "").split("-", 2);
-
-            // Assign array values to variables (solely for clarity's sake)
-            final String vLocal = localRaw[0], vRemote = remoteRaw[0],
-                    rcLocalRaw = (localRaw.length > 1 ? localRaw[1].replaceAll("\\D", "") : "0"),
-                    rcRemoteRaw = (remoteRaw.length > 1 ? remoteRaw[1].replaceAll("\\D", "") : "0");
-            final int rcLocal = (rcLocalRaw.isEmpty() ? 0 : Integer.parseInt(rcLocalRaw)),
-                    rcRemote = (rcRemoteRaw.isEmpty() ? 0 : Integer.parseInt(rcRemoteRaw));
-
-            // Check major.minor versions to see if remote version is newer
-            // Based on StackOverflow answer by Alex Gitelman found here:
-            // http://stackoverflow.com/a/6702029/1711452
-            if (!vLocal.equals(vRemote))
-            {
-                // Split version number into major, minor, patch, etc
-                final String[] localMajorMinor = vLocal.split("\\."),
-                        remoteMajorMinor = vRemote.split("\\.");
-                int i = 0;
-                // Iterate through all subversions until we find one that's not equal
-                while (i < localMajorMinor.length && i < remoteMajorMinor.length
-                        && localMajorMinor[i].equals(remoteMajorMinor[i]))
+            addTimedOut(task, task.results, reason);
+            return true;
+        }
+    }
+
+    // Checks every mod that shares a master URL with a single download
+    private static final class GroupCheck extends Check
+    {
+        private final List<VersionFile> versions;
+        private List<ModInfo> results;
+
+        private GroupCheck(List<VersionFile> versions, RemoteFileCache cache, MainTask task)
+        {
+            super(versions.get(0).getMasterURL(), cache, task);
+            this.versions = versions;
+        }
+
+        @Override
+        void start(HttpFetcher fetcher, FetchMetrics allMetrics)
+        {
+            // No valid master version URL entry was found in the .version file
+            if (url == null)
+            {
+                finish("no update URL was found in .version file");
+                return;
+            }
+
+            // Don't allow local files outside of dev mode
+            if (!ALLOW_LOCAL_FILES && url.trim().toLowerCase().startsWith("file:"))
+            {
+                Log.error("Local URLs are not allowed unless devmode is enabled: \""
+                        + url + "\"");
+                finish("local URLs are not allowed unless devmode is enabled: \""
+                        + url + "\"");
+                return;
+            }
+
+            Log.info("Loading version info from remote URL " + url);
+
+            // If we've seen this file before, only download it again if it changed
+            cached = cache.get(url);
+            metrics = allMetrics.start(url, versions, System.nanoTime());
+            fetcher.fetch(url, cached, metrics, this);
+        }
+
+        @Override
+        public void completed(HttpFetcher.Response response)
+        {
+            try
+            {
+                final boolean isUnchanged = (cached != null && response.isNotModified());
+                final long parseStart = System.nanoTime();
+                final JSONObject json = JSONSanitizer.sanitize(
+                        isUnchanged ? cached.body : response.body);
+
+                // Each entry is only parsed once, however many mods share it
+                final Map<String, Object> remotes = new HashMap<>();
+                for (VersionFile localVersion : versions)
                 {
-                    i++;
+                    final String id = localVersion.getMasterId();
+                    if (!remotes.containsKey(id))
+                    {
+                        remotes.put(id, (id == null ? new VersionFile(json, true)
+                                : getIndexEntry(json, id)));
+                    }
                 }
-                // Compare first non-equal subversion number
-                if (i < localMajorMinor.length && i < remoteMajorMinor.length)
+                metrics.parse = FetchMetrics.toMillis(System.nanoTime() - parseStart);
+                if (isUnchanged)
                 {
-                    // Pad numbers so ex: 0.65 is considered higher than 0.6
-                    final String localPadded = String.format("%-3s", localMajorMinor[i]).replace(' ', '0'),
-                            remotePadded = String.format("%-3s", remoteMajorMinor[i]).replace(' ', '0');
-                    return remotePadded.compareTo(localPadded) > 0;
+                    Log.debug("Master version file at URL \"" + url + "\" is unchanged");
+                    finishRequest("not modified");
                 }
-                // If version length differs but up to that length they are equal,
-                // then the longer one is a patch of the shorter
                 else
                 {
-                    return remoteMajorMinor.length > localMajorMinor.length;
+                    // Only cache the body once we know it parses
+                    cache.put(url, response.etag, response.lastModified, response.body);
+                    finishRequest("ok");
                 }
+
+                finish(remotes);
+            }
+            catch (JSONException ex)
+            {
+                Log.error("Malformed JSON in remote version file at URL \"" + url + "\"", ex);
+                finishRequest("malformed json");
+                finish("malformed JSON in remote version file at URL \"" + url + "\"");
+            }
+        }
+
+        @Override
+        public void failed(IOException ex)
+        {
+            if (ex instanceof MalformedURLException)
+            {
+                Log.error("Invalid master version file URL \"" + url + "\"", ex);
+                metrics.finish("invalid url");
+                finish("invalid master version file URL \"" + url + "\"");
+                return;
+            }
+
+            if (ex instanceof HttpFetcher.HostSkippedException)
+            {
+                Log.error(ex.getMessage());
+                metrics.finish("skipped");
+            }
+            else if (ex instanceof HttpFetcher.RejectedException)
+            {
+                Log.error(ex.getMessage());
+                finishRequest("rejected");
+                finish("master version file URL \"" + url + "\" didn't return a version file");
+                return;
+            }
+            else
+            {
+                Log.error("Failed to load master version file from URL \"" + url + "\"", ex);
+                finishRequest(ex instanceof SocketTimeoutException ? "timeout" : "failed");
+            }
+
+            finish("failed to load master version file from URL \"" + url + "\"");
+        }
+
+        // Returns an error message instead if the entry is missing or malformed
+        private Object getIndexEntry(JSONObject index, String id)
+        {
+            final JSONObject mods = index.optJSONObject("mods");
+            final JSONObject entry = (mods == null ? null : mods.optJSONObject(id));
+            if (entry == null)
+            {
+                Log.error("No entry \"" + id + "\" in version index at URL \"" + url + "\"");
+                return "no entry \"" + id + "\" in version index at URL \"" + url + "\"";
+            }
+
+            try
+            {
+                return new VersionFile(entry, true);
+            }
+            catch (JSONException ex)
+            {
+                Log.error("Malformed entry \"" + id + "\" in version index at URL \""
+                        + url + "\"", ex);
+                return "malformed entry \"" + id + "\" in version index at URL \""
+                        + url + "\"";
+            }
+        }
+
+        // Every mod in the group gets the same result or error message
+        private void finish(Object remoteVersion)
+        {
+            final Map<String, Object> remoteVersions = new HashMap<>();
+            for (VersionFile localVersion : versions)
+            {
+                remoteVersions.put(localVersion.getMasterId(), remoteVersion);
+            }
+
+            finish(remoteVersions);
+        }
+
+        // remoteVersions maps each masterVersionId (null for a plain master
+        // version file) to its parsed entry or an error message
+        private void finish(Map<String, Object> remoteVersions)
+        {
+            final List<ModInfo> results = new ArrayList<>(versions.size());
+            for (VersionFile localVersion : versions)
+            {
+                results.add(createModInfo(localVersion,
+                        remoteVersions.get(localVersion.getMasterId()), cache));
             }
 
-            // Check release candidate if major.minor versions are the same
-            return (Integer.compare(rcRemote, rcLocal) > 0);
+            this.results = results;
+            finish();
         }
 
         @Override
-        public UpdateInfo call() throws InterruptedException, ExecutionException
+        void addResults(MainTask task, UpdateInfo results)
         {
-            Log.info("Starting update checks");
-            final long startTime = System.nanoTime();
+            for (ModInfo info : this.results)
+            {
+                task.addResult(results, info);
+            }
+        }
+
+        @Override
+        void addTimedOut(MainTask task, UpdateInfo results, String reason)
+        {
+            super.addTimedOut(task, results, reason);
+            for (VersionFile version : versions)
+            {
+                Log.warn("Update check for " + version.getName() + " " + reason);
+                task.addResult(results, new ModInfo(version, reason));
+            }
+        }
+    }
 
-            // Check for updates in separate threads for faster execution
-            CompletionService<ModInfo> service = createCompletionService();
-            final UpdateInfo results = new UpdateInfo();
+    // Looks up the latest Starsector release alongside the mod checks, with
+    // the same retries, caching and deadline as a master version file
+    private static final class VanillaCheck extends Check
+    {
+        private final String cachedResult;
+        private String latestVersion, error;
 
-            // Poll for SS update, can block if site is unresponsive
-            if (VCModPlugin.checkSSVersion)
+        // Looked up once here, so the result can't expire between
+        // needsDownload() and start()
+        private VanillaCheck(RemoteFileCache cache, MainTask task)
+        {
+            super(VANILLA_UPDATE_URL, cache, task);
+            cachedResult = (CACHE_TTL > 0 ? cache.getResult(url, CACHE_TTL) : null);
+        }
+
+        @Override
+        boolean needsDownload()
+        {
+            return (cachedResult == null);
+        }
+
+        @Override
+        void start(HttpFetcher fetcher, FetchMetrics allMetrics)
+        {
+            if (cachedResult != null)
+            {
+                Log.debug("Cache hit for Starsector update info");
+                latestVersion = cachedResult;
+                finish();
+                return;
+            }
+
+            Log.info("Loading starsector update info from remote URL " + url);
+            cached = cache.get(url);
+            metrics = allMetrics.start(url, Collections.<VersionFile>emptyList(),
+                    System.nanoTime());
+            fetcher.fetch(url, cached, metrics, this);
+        }
+
+        @Override
+        public void completed(HttpFetcher.Response response)
+        {
+            final boolean isUnchanged = (cached != null && response.isNotModified());
+            final String latest = (isUnchanged ? cached.body : response.body);
+            if (latest == null || latest.trim().isEmpty())
+            {
+                Log.error("Vanilla update data from URL \"" + url + "\" is empty");
+                finishRequest("empty");
+                error = NoSuchElementException.class.getSimpleName();
+                finish();
+                return;
+            }
+
+            if (isUnchanged)
+            {
+                finishRequest("not modified");
+            }
+            else
             {
-                try
+                cache.put(url, response.etag, response.lastModified, response.body);
+                finishRequest("ok");
+            }
+
+            if (CACHE_TTL > 0)
+            {
+                cache.putResult(url, latest);
+            }
+
+            latestVersion = latest;
+            finish();
+        }
+
+        @Override
+        public void failed(IOException ex)
+        {
+            Log.error("Failed to load vanilla update data from URL \"" + url + "\"", ex);
+            finishRequest(ex instanceof SocketTimeoutException ? "timeout" : "failed");
+            error = ex.getClass().getSimpleName();
+            finish();
+        }
+
+        @Override
+        void addResults(MainTask task, UpdateInfo results)
+        {
+            if (error != null)
+            {
+                results.setFailedSSError(error);
+                return;
+            }
+
+            try
+            {
+                final String currentVanilla = Global.getSettings().getVersionString();
+                Log.info("Local Starsector version is " + currentVanilla
+                        + ", latest known is " + latestVersion);
+                if (isRemoteNewer(currentVanilla, latestVersion))
                 {
-                    final String currentVanilla = Global.getSettings().getVersionString(),
-                            latestVanilla = getLatestSSVersion();
-                    Log.info("Local Starsector version is " + currentVanilla
-                            + ", latest known is " + latestVanilla);
-                    if (isRemoteNewer(currentVanilla, latestVanilla))
-                    {
-                        Log.info("Starsector update available!");
-                        results.setSSUpdate(latestVanilla);
-                    }
+                    Log.info("Starsector update available!");
+                    results.setSSUpdate(latestVersion);
                 }
-                catch (IOException ex)
+            }
+            catch (Exception ex)
+            {
+                Log.error("Failed to parse vanilla update data from URL \"" + url + "\"", ex);
+                results.setFailedSSError(ex.getClass().getSimpleName());
+            }
+        }
+
+        @Override
+        void addTimedOut(MainTask task, UpdateInfo results, String reason)
+        {
+            super.addTimedOut(task, results, reason);
+            Log.warn("Starsector update check " + reason);
+            results.setFailedSSError(reason);
+        }
+    }
+
+    private static final class MainTask implements Callable<UpdateInfo>
+    {
+        private final List<VersionFile> localVersions;
+        private final Queue<ModInfo> completed;
+        private final UpdateInfo results = new UpdateInfo();
+        private final BlockingQueue<Check> finished = new LinkedBlockingQueue<>();
+
+        private MainTask(final List<VersionFile> localVersions, final Queue<ModInfo> completed)
+        {
+            this.localVersions = localVersions;
+            this.completed = completed;
+        }
+
+        private static int getNumberOfThreads(Collection<List<VersionFile>> toCheck)
+        {
+            return Math.max(1, Math.min(MAX_THREADS, toCheck.size()));
+        }
+
+        // Mods that share a master URL are grouped so it's only downloaded once
+        private static Collection<List<VersionFile>> groupByURL(List<VersionFile> toCheck)
+        {
+            final Map<String, List<VersionFile>> byURL = new LinkedHashMap<>();
+            final List<List<VersionFile>> groups = new ArrayList<>(toCheck.size());
+            for (VersionFile version : toCheck)
+            {
+                // Mods without a master URL fail individually
+                final String url = version.getMasterURL();
+                if (url == null)
                 {
-                    Log.error("Failed to load vanilla update data from URL \""
-                            + VANILLA_UPDATE_URL + "\"", ex);
-                    results.setFailedSSError(ex.getClass().getSimpleName());
+                    groups.add(Collections.singletonList(version));
+                    continue;
                 }
-                catch (Exception ex)
+
+                List<VersionFile> group = byURL.get(url);
+                if (group == null)
                 {
-                    Log.error("Failed to parse vanilla update data from URL \""
-                            + VANILLA_UPDATE_URL + "\"", ex);
-                    results.setFailedSSError(ex.getClass().getSimpleName());
+                    group = new ArrayList<>(1);
+                    byURL.put(url, group);
+                    groups.add(group);
                 }
+
+                group.add(version);
             }
 
-            // Poll for results from the other threads until all have finished
-            int modsToCheck = localVersions.size();
-            while (modsToCheck > 0)
+            return groups;
+        }
+
+        // Longest expected download first, so a slow host isn't left until
+        // last where it holds up the end of the check. URLs that have never
+        // been downloaded are assumed to be slow, and keep their CSV order
+        private static List<List<VersionFile>> sortByExpectedLatency(
+                Collection<List<VersionFile>> groups, final RemoteFileCache cache)
+        {
+            final List<List<VersionFile>> sorted = new ArrayList<>(groups);
+            Collections.sort(sorted, new Comparator<List<VersionFile>>()
             {
-                ModInfo tmp = service.take().get(); // Throws exceptions
-                modsToCheck--;
+                private long getExpected(List<VersionFile> group)
+                {
+                    // Groups without a URL fail without downloading anything
+                    final String url = group.get(0).getMasterURL();
+                    if (url == null)
+                    {
+                        return 0;
+                    }
+
+                    final long latency = cache.getLatency(url);
+                    return (latency < 0 ? Long.MAX_VALUE : latency);
+                }
 
-                // Update check failed for some reason
-                if (tmp.failedUpdateCheck())
+                @Override
+                public int compare(List<VersionFile> o1, List<VersionFile> o2)
                 {
-                    results.addFailed(tmp);
+                    return Long.compare(getExpected(o2), getExpected(o1));
                 }
-                // Remote version is newer than local
-                else if (tmp.isUpdateAvailable())
+            });
+
+            return sorted;
+        }
+
+        // Called from whichever thread finished the check
+        private void addResult(UpdateInfo results, ModInfo tmp)
+        {
+            // Let the notification script show this result right away
+            completed.add(tmp);
+
+            // Update check failed for some reason
+            if (tmp.failedUpdateCheck())
+            {
+                results.addFailed(tmp);
+            }
+            // Remote version is newer than local
+            else if (tmp.isUpdateAvailable())
+            {
+                results.addUpdate(tmp);
+            }
+            // Remote version is older/same as local
+            else
+            {
+                results.addNoUpdate(tmp);
+            }
+        }
+
+        @Override
+        public UpdateInfo call() throws InterruptedException
+        {
+            Log.info("Starting update checks");
+            final long startTime = System.nanoTime(),
+                    deadline = startTime + TimeUnit.MILLISECONDS.toNanos(CHECK_TIMEOUT);
+
+            final RemoteFileCache cache = RemoteFileCache.load();
+            final FetchMetrics metrics = new FetchMetrics();
+
+            // Reuse any results that are still within their time-to-live
+            final List<VersionFile> toCheck = new ArrayList<>(localVersions.size());
+            for (VersionFile version : localVersions)
+            {
+                final ModInfo cached = getCachedResult(version, cache);
+                if (cached != null)
                 {
-                    results.addUpdate(tmp);
+                    Log.debug("Cache hit for " + version.getName());
+                    addResult(results, cached);
                 }
-                // Remote version is older/same as local
                 else
                 {
-                    results.addNoUpdate(tmp);
+                    Log.debug("Cache miss for " + version.getName());
+                    toCheck.add(version);
                 }
             }
 
-            // Report how long the check took
-            final String elapsedTime = DecimalFormat.getNumberInstance().format(
-                    (System.nanoTime() - startTime) / 1000000000.0d);
-            Log.info("Checked game and " + results.getNumModsChecked()
-                    + " mods in " + elapsedTime + " seconds");
-            return results;
-        }
+            Log.info("Cache hits: " + (localVersions.size() - toCheck.size())
+                    + ", cache misses: " + toCheck.size());
 
-        private static class SubTask implements Callable<ModInfo>
-        {
-            final VersionFile version;
+            // Start every download at once, the fetch engine decides how many
+            // actually run at the same time
+            final Collection<List<VersionFile>> groups = groupByURL(toCheck);
+            final int duplicates = toCheck.size() - groups.size();
+            final Set<Check> pending = new HashSet<>();
 
-            private SubTask(VersionFile version)
+            // The SS update check is just one more download, it goes first
+            // as there's only one and it doesn't depend on any mods
+            final List<Check> checks = new ArrayList<>(groups.size() + 1);
+            if (VCModPlugin.checkSSVersion)
             {
-                this.version = version;
+                checks.add(new VanillaCheck(cache, this));
             }
+            for (List<VersionFile> group : sortByExpectedLatency(groups, cache))
+            {
+                checks.add(new GroupCheck(group, cache, this));
+            }
+
+            // Don't open a selector or any sockets if everything was cached
+            boolean needsDownload = false;
+            for (Check check : checks)
+            {
+                needsDownload |= check.needsDownload();
+            }
+
+            final FetchEngine engine = (needsDownload ? createEngine(
+                    getNumberOfThreads(groups), new TaskGroup(getExecutor())) : null);
+            final HttpFetcher fetcher = (engine == null ? null : new HttpFetcher(engine,
+                    new ConcurrencyLimiter(MIN_DOWNLOADS, Math.min(MAX_DOWNLOADS,
+                            engine.getMaxConcurrency())), MAX_THREADS_PER_HOST,
+                    MAX_RETRIES, RETRY_DELAY, MAX_HOST_FAILURES));
+            try
+            {
+                for (Check check : checks)
+                {
+                    pending.add(check);
+                    check.start(fetcher, metrics);
+                }
+
+                // Wait for the results of every download until all have finished
+                // or we run out of time, whichever comes first
+                while (!pending.isEmpty())
+                {
+                    final Check check = (CHECK_TIMEOUT <= 0 ? finished.take()
+                            : finished.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+                    if (check == null)
+                    {
+                        break;
+                    }
+
+                    pending.remove(check);
+                }
 
-            @Override
-            public ModInfo call() throws Exception
+                // Anything still running after the deadline is reported as failed
+                if (!pending.isEmpty())
+                {
+                    final String reason = "timed out after " + TimeUnit.MILLISECONDS.toSeconds(
+                            CHECK_TIMEOUT) + " seconds";
+                    final Set<Check> publishing = new HashSet<>();
+                    for (Check check : pending)
+                    {
+                        if (!check.timeOut(reason))
+                        {
+                            publishing.add(check);
+                        }
+                    }
+
+                    // Anything that finished at the last moment will be done shortly
+                    while (!publishing.isEmpty())
+                    {
+                        publishing.remove(finished.take());
+                    }
+                }
+
+                // Remember validators and results so they can be reused next launch
+                cache.save();
+
+                // Report how long the check took
+                final long elapsed = System.nanoTime() - startTime;
+                if (fetcher != null)
+                {
+                    Log.info("Downloads finished, " + fetcher.getConcurrency());
+                }
+                metrics.finish(FetchMetrics.toMillis(elapsed),
+                        (fetcher == null ? 0 : fetcher.getConcurrencyLimit()));
+                final String elapsedTime = DecimalFormat.getNumberInstance().format(
+                        elapsed / 1000000000.0d);
+                Log.info("Checked game and " + results.getNumModsChecked()
+                        + " mods in " + elapsedTime + " seconds (" + results.getNumHasUpdate()
+                        + " updates, " + results.getNumFailed() + " failed, " + duplicates
+                        + " duplicate downloads avoided)");
+                return results;
+            }
+            finally
             {
-                return checkForUpdate(version);
+                // Abandon anything still running and don't leave idle threads behind
+                if (engine != null)
+                {
+                    engine.shutdown();
+                }
             }
         }
     }
 
-    private static final class VCThreadFactory implements ThreadFactory
+    static final class VCThreadFactory implements ThreadFactory
     {
-        private int threadNum = 0;
+        private final AtomicInteger threadNum = new AtomicInteger(0);
 
         @Override
         public Thread newThread(Runnable r)
         {
-            threadNum++;
-            Thread thread = new Thread(r, "Thread-VC-" + threadNum);
+            Thread thread = new Thread(r, "Thread-VC-" + threadNum.incrementAndGet());
             thread.setDaemon(true);
             thread.setPriority(3);
             return thread;
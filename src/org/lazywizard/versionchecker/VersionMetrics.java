@@ -0,0 +1,40 @@
+package org.lazywizard.versionchecker;
+
+import org.lazywizard.console.BaseCommand;
+import org.lazywizard.console.Console;
+import org.lazywizard.versionchecker.FetchMetrics.HostSummary;
+
+public class VersionMetrics implements BaseCommand
+{
+    @Override
+    public CommandResult runCommand(String args, CommandContext context)
+    {
+        final FetchMetrics metrics = FetchMetrics.getLastReport();
+        if (metrics == null)
+        {
+            Console.showMessage("No update check has finished yet.");
+            return CommandResult.ERROR;
+        }
+
+        // Hosts are listed slowest first
+        final StringBuilder sb = new StringBuilder(512);
+        sb.append("Last update check took ").append(metrics.getElapsedMillis())
+                .append("ms and made ").append(metrics.getRequests().size())
+                .append(" requests, with up to ").append(metrics.getConcurrency())
+                .append(" at once by the end:");
+        for (HostSummary host : metrics.getHostSummaries().values())
+        {
+            sb.append("\n\n").append(host.host).append(": ").append(host.requests)
+                    .append(" requests, ").append(host.failures).append(" failed, ")
+                    .append(host.bytes).append(" bytes")
+                    .append("\n - Total: ").append(host.total)
+                    .append("\n - Queued: ").append(host.queueWait)
+                    .append("\n - First byte: ").append(host.firstByte)
+                    .append("\n - Download: ").append(host.download);
+        }
+
+        sb.append("\n\nFull report saved to saves/common");
+        Console.showMessage(sb.toString());
+        return CommandResult.SUCCESS;
+    }
+}